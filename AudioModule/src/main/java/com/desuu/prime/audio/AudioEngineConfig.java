@@ -0,0 +1,90 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Builds the shared LavaPlayer {@link AudioPlayerManager} from {@code audio.engine.*} settings,
+ * so CPU can be traded for quality per deployment.
+ *
+ * <p>{@code audio.engine.preset} picks a starting point and any individual key overrides it:
+ * <ul>
+ *   <li>{@code low_cpu}: Opus quality 4, low resampling quality, 2 s frame buffer</li>
+ *   <li>{@code balanced} (default): LavaPlayer's own defaults, i.e. Opus quality 10, low resampling, 5 s buffer</li>
+ *   <li>{@code high_quality}: Opus quality 10, high resampling quality, 5 s buffer</li>
+ * </ul>
+ *
+ * <p>The player cleanup threshold should stay well above {@code audio.prefetch.seconds}, since a
+ * prefetched track sits unread on its standby player until the current one ends.
+ */
+public final class AudioEngineConfig {
+    private static final Logger log = LoggerFactory.getLogger(AudioEngineConfig.class);
+
+    private AudioEngineConfig() {
+    }
+
+    /**
+     * Creates and tunes a player manager. Sources are registered later by {@link GuildMusicManager#init}.
+     */
+    public static AudioPlayerManager createPlayerManager(Properties config) {
+        String preset = config.getProperty("audio.engine.preset", "balanced").trim().toLowerCase(Locale.ROOT);
+        int opusQuality;
+        AudioConfiguration.ResamplingQuality resampling;
+        int frameBufferMillis;
+        switch (preset) {
+            case "low_cpu":
+                opusQuality = 4;
+                resampling = AudioConfiguration.ResamplingQuality.LOW;
+                frameBufferMillis = 2000;
+                break;
+            case "high_quality":
+                opusQuality = AudioConfiguration.OPUS_QUALITY_MAX;
+                resampling = AudioConfiguration.ResamplingQuality.HIGH;
+                frameBufferMillis = 5000;
+                break;
+            case "balanced":
+                opusQuality = AudioConfiguration.OPUS_QUALITY_MAX;
+                resampling = AudioConfiguration.ResamplingQuality.LOW;
+                frameBufferMillis = 5000;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown audio.engine.preset: " + preset);
+        }
+
+        opusQuality = Integer.parseInt(config.getProperty("audio.engine.opus_quality", String.valueOf(opusQuality)));
+        resampling = AudioConfiguration.ResamplingQuality.valueOf(
+                config.getProperty("audio.engine.resampling_quality", resampling.name()).trim().toUpperCase(Locale.ROOT));
+        frameBufferMillis = Integer.parseInt(config.getProperty("audio.engine.frame_buffer_ms", String.valueOf(frameBufferMillis)));
+        long stuckThresholdMillis = Long.parseLong(config.getProperty("audio.engine.stuck_threshold_ms", "10000"));
+        long cleanupThresholdMillis = Long.parseLong(config.getProperty("audio.engine.cleanup_threshold_ms", "60000"));
+        int loaderThreads = Integer.parseInt(config.getProperty("audio.engine.loader_threads", "10"));
+        boolean seekGhosting = Boolean.parseBoolean(config.getProperty("audio.engine.seek_ghosting", "true"));
+
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        AudioConfiguration audio = manager.getConfiguration();
+        audio.setOpusEncodingQuality(opusQuality);
+        audio.setResamplingQuality(resampling);
+        // Frames are kept in one preallocated array and copied straight into the send handler's buffer.
+        // The default AllocatingAudioFrameBuffer creates an AudioFrame for every 20 ms frame, even for
+        // provide(MutableAudioFrame).
+        audio.setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
+        manager.setFrameBufferDuration(frameBufferMillis);
+        manager.setTrackStuckThreshold(stuckThresholdMillis);
+        manager.setPlayerCleanupThreshold(cleanupThresholdMillis);
+        manager.setItemLoaderThreadPoolSize(loaderThreads);
+        manager.setUseSeekGhosting(seekGhosting);
+
+        log.info("Audio engine: preset={}, opus quality={}, resampling={}, frame buffer={}ms, stuck threshold={}ms, "
+                        + "cleanup threshold={}ms, loader threads={}, seek ghosting={}",
+                preset, opusQuality, resampling, frameBufferMillis, stuckThresholdMillis, cleanupThresholdMillis,
+                loaderThreads, seekGhosting);
+        return manager;
+    }
+}
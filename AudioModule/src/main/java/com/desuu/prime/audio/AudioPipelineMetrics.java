@@ -0,0 +1,181 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrameBuffer;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioTrackExecutor;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Health of one guild's send path: how many 20 ms ticks had a frame, how many came up empty while
+ * a track was playing (underruns), how long underrun streaks last, how long {@code provide()}
+ * takes and how full LavaPlayer's frame buffer is.
+ *
+ * <p>Frame counts are recorded on every tick. Timing and buffer fill are only sampled once every
+ * {@code sampleEvery} ticks, which keeps the cost on the audio thread to a couple of counter
+ * increments. Everything is readable from other threads without locking.
+ */
+public class AudioPipelineMetrics {
+    // Bucket i holds provide() times below 2^i microseconds; the last bucket is open-ended
+    private static final int LATENCY_BUCKETS = 16;
+
+    private final int sampleEvery;
+    private int untilSample; // Only touched by the audio thread
+
+    private final LongAdder framesProvided = new LongAdder();
+    private final LongAdder framesMissed = new LongAdder();
+    private final LongAdder underrunStreaks = new LongAdder();
+    private final AtomicLong longestStreak = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+    private volatile int currentStreak = 0;
+    private volatile int bufferFillPercent = -1;
+    private volatile int lowestBufferFillPercent = 100;
+
+    AudioPipelineMetrics(int sampleEvery) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.untilSample = this.sampleEvery;
+    }
+
+    /**
+     * Whether this tick should be timed. Counts down, so only the audio thread may call it.
+     */
+    boolean shouldSample() {
+        if (--untilSample > 0) {
+            return false;
+        }
+        untilSample = sampleEvery;
+        return true;
+    }
+
+    void recordProvided() {
+        framesProvided.increment();
+        int streak = currentStreak;
+        if (streak > 0) {
+            underrunStreaks.increment();
+            longestStreak.accumulateAndGet(streak, Math::max);
+            currentStreak = 0;
+        }
+    }
+
+    /**
+     * Records a tick with no frame. Only counted as an underrun if a track was meant to be playing.
+     */
+    void recordMissed(AudioPlayer player) {
+        if (player.getPlayingTrack() != null && !player.isPaused()) {
+            framesMissed.increment();
+            currentStreak = currentStreak + 1;
+        }
+    }
+
+    void recordSample(long provideNanos, AudioPlayer player) {
+        long micros = provideNanos / 1000;
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        latencyHistogram.incrementAndGet(bucket);
+
+        int fill = bufferFill(player.getPlayingTrack());
+        bufferFillPercent = fill;
+        if (fill >= 0 && fill < lowestBufferFillPercent) {
+            lowestBufferFillPercent = fill;
+        }
+    }
+
+    /**
+     * @return The fill level of the track's frame buffer in percent, or -1 if it cannot be read.
+     */
+    private static int bufferFill(AudioTrack track) {
+        if (!(track instanceof InternalAudioTrack)) {
+            return -1;
+        }
+        AudioTrackExecutor executor = ((InternalAudioTrack) track).getActiveExecutor();
+        if (!(executor instanceof LocalAudioTrackExecutor)) {
+            return -1;
+        }
+        AudioFrameBuffer buffer = ((LocalAudioTrackExecutor) executor).getAudioBuffer();
+        int capacity = buffer.getFullCapacity();
+        return capacity <= 0 ? -1 : (int) (100L * (capacity - buffer.getRemainingCapacity()) / capacity);
+    }
+
+    public long getFramesProvided() {
+        return framesProvided.sum();
+    }
+
+    public long getFramesMissed() {
+        return framesMissed.sum();
+    }
+
+    public long getUnderrunStreaks() {
+        return underrunStreaks.sum();
+    }
+
+    public long getLongestUnderrunStreak() {
+        return Math.max(longestStreak.get(), currentStreak);
+    }
+
+    /**
+     * @return The fraction of ticks during playback that had no frame.
+     */
+    public double getUnderrunRate() {
+        long missed = getFramesMissed();
+        long total = missed + getFramesProvided();
+        return total == 0 ? 0 : (double) missed / total;
+    }
+
+    /**
+     * @return The buffer fill seen at the last sample in percent, or -1 if unknown.
+     */
+    public int getBufferFillPercent() {
+        return bufferFillPercent;
+    }
+
+    public int getLowestBufferFillPercent() {
+        return lowestBufferFillPercent;
+    }
+
+    /**
+     * @return The count of sampled provide() calls per latency bucket, where bucket i covers
+     * times below 2^i microseconds.
+     */
+    public long[] getLatencyHistogram() {
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = latencyHistogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return An upper bound for the given quantile of sampled provide() times in microseconds, or -1 without samples.
+     */
+    public long getLatencyPercentileMicros(double quantile) {
+        long[] counts = getLatencyHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long target = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("provided=%d, missed=%d (%.2f%%), streaks=%d (longest %d), provide p99<=%dus, buffer=%d%% (low %d%%)",
+                getFramesProvided(), getFramesMissed(), getUnderrunRate() * 100, getUnderrunStreaks(),
+                getLongestUnderrunStreak(), getLatencyPercentileMicros(0.99), getBufferFillPercent(),
+                getLowestBufferFillPercent());
+    }
+}
@@ -1,38 +1,159 @@
 package com.desuu.prime.audio;
 
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
-import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
 import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
 import net.dv8tion.jda.api.managers.AudioManager;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class bridges a LavaPlayer AudioPlayer with JDA's AudioSendHandler
  * so audio can be sent into a Discord voice channel.
+ *
+ * <p>Frames are written in place into a single buffer owned by the handler, so the
+ * 20 ms send path does not allocate.
+ *
+ * <p>A preloaded clip can be played over the player with {@link #playClip}. While the clip runs
+ * the player is not polled, so its track simply holds its position and carries on afterwards.
+ *
+ * <p>The player being read from can be swapped between ticks (see {@link TrackScheduler}'s
+ * prefetching), which is how a pre-buffered next track takes over without a gap.
  */
 public class AudioPlayerSendHandler implements AudioSendHandler {
-    private final AudioPlayer audioPlayer;
-    private AudioFrame lastFrame;
+    private volatile AudioPlayer audioPlayer;
+    private final ByteBuffer buffer;
+    private final MutableAudioFrame frame;
+    private final AudioPipelineMetrics metrics; // Null when disabled
+
+    // Clip handed over by playClip, picked up by the audio thread on its next tick
+    private final AtomicReference<byte[][]> pendingClip = new AtomicReference<>();
+    // Only touched by the audio thread
+    private byte[][] clip;
+    private int clipIndex;
+
+    // Set when a track ends, cleared once the next track's first frame goes out
+    private volatile PendingTransition pendingTransition;
 
     public AudioPlayerSendHandler(AudioPlayer audioPlayer) {
+        this(audioPlayer, false);
+    }
+
+    /**
+     * @param directBuffer Whether to back the frame with a direct (off-heap) buffer.
+     */
+    public AudioPlayerSendHandler(AudioPlayer audioPlayer, boolean directBuffer) {
+        this(audioPlayer, directBuffer, null);
+    }
+
+    /**
+     * @param directBuffer Whether to back the frame with a direct (off-heap) buffer.
+     * @param metrics      Where to record send path health, or null to skip it.
+     */
+    public AudioPlayerSendHandler(AudioPlayer audioPlayer, boolean directBuffer, AudioPipelineMetrics metrics) {
+        this.audioPlayer = audioPlayer;
+        this.metrics = metrics;
+        int capacity = StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize();
+        this.buffer = directBuffer ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        this.frame = new MutableAudioFrame();
+        this.frame.setBuffer(buffer);
+    }
+
+    /**
+     * Plays the given Opus frames ahead of the player, replacing any clip already playing.
+     */
+    public void playClip(byte[][] frames) {
+        pendingClip.set(frames);
+    }
+
+    /**
+     * Switches to reading from another player, from the next tick on.
+     */
+    void setPlayer(AudioPlayer audioPlayer) {
         this.audioPlayer = audioPlayer;
     }
 
+    /**
+     * @return Send path health for this handler, or null if it is not being recorded.
+     */
+    public AudioPipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts timing the gap until the next frame from a player is sent.
+     */
+    void beginTransition(TransitionMetrics metrics, boolean prefetched) {
+        pendingTransition = new PendingTransition(metrics, prefetched, System.nanoTime());
+    }
+
     @Override
     public boolean canProvide() {
-        lastFrame = audioPlayer.provide();
-        return lastFrame != null;
+        byte[][] pending = pendingClip.get() != null ? pendingClip.getAndSet(null) : null;
+        if (pending != null) {
+            clip = pending;
+            clipIndex = 0;
+        }
+        if (clip != null) {
+            if (clipIndex < clip.length) {
+                byte[] data = clip[clipIndex++];
+                buffer.clear();
+                buffer.put(data);
+                return true;
+            }
+            clip = null;
+        }
+        boolean sample = metrics != null && metrics.shouldSample();
+        long startNanos = sample ? System.nanoTime() : 0;
+
+        AudioPlayer player = audioPlayer;
+        boolean provided = player.provide(frame);
+        if (!provided && audioPlayer != player) {
+            // The track ended inside provide() and the scheduler swapped in a prefetched player
+            player = audioPlayer;
+            provided = player.provide(frame);
+        }
+
+        if (metrics != null) {
+            if (sample) {
+                metrics.recordSample(System.nanoTime() - startNanos, player);
+            }
+            if (provided) {
+                metrics.recordProvided();
+            } else {
+                metrics.recordMissed(player);
+            }
+        }
+        PendingTransition transition = pendingTransition;
+        if (provided && transition != null) {
+            pendingTransition = null;
+            transition.metrics.record(System.nanoTime() - transition.startNanos, transition.prefetched);
+        }
+        return provided;
     }
 
     @Override
     public ByteBuffer provide20MsAudio() {
-        return ByteBuffer.wrap(lastFrame.getData());
+        return buffer.flip();
     }
 
     @Override
     public boolean isOpus() {
         return true;
     }
+
+    private static class PendingTransition {
+        final TransitionMetrics metrics;
+        final boolean prefetched;
+        final long startNanos;
+
+        PendingTransition(TransitionMetrics metrics, boolean prefetched, long startNanos) {
+            this.metrics = metrics;
+            this.prefetched = prefetched;
+            this.startNanos = startNanos;
+        }
+    }
 }
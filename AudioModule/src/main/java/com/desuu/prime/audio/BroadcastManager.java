@@ -0,0 +1,235 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.channel.concrete.VoiceChannel;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.managers.AudioManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast mode: guilds that want to hear the same stream share one {@link BroadcastStation}
+ * instead of each running its own player. Stations are keyed by identifier, created when the
+ * first guild tunes in and shut down when the last one leaves. A single pump thread reads every
+ * station's producer once per 20 ms frame.
+ *
+ * <p>Uses the player manager passed to {@link GuildMusicManager#init}.
+ */
+public class BroadcastManager {
+    private static final Logger log = LoggerFactory.getLogger(BroadcastManager.class);
+    private static final long FRAME_MILLIS = 20;
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private static final Map<String, BroadcastStation> STATIONS = new ConcurrentHashMap<>();
+    private static final Map<Long, BroadcastSubscriber> SUBSCRIPTIONS = new ConcurrentHashMap<>();
+
+    private static int bufferFrames = 250;   // 5 seconds
+    private static int cushionFrames = 3;
+    private static volatile ScheduledExecutorService pump;
+
+    private BroadcastManager() {
+    }
+
+    /**
+     * Applies {@code audio.broadcast.*} settings. Optional; the defaults apply otherwise.
+     */
+    public static void configure(Properties config) {
+        bufferFrames = Integer.parseInt(config.getProperty("audio.broadcast.buffer_frames", "250"));
+        cushionFrames = Integer.parseInt(config.getProperty("audio.broadcast.cushion_frames", "3"));
+    }
+
+    /**
+     * Tunes the guild in to the broadcast for the given query (URL or search term), starting the
+     * broadcast if no other guild is listening to it yet, and joins the voice channel. The guild's own
+     * music playback is stopped and its queue cleared.
+     */
+    public static void subscribe(InteractionHook hook, String query, VoiceChannel channel) {
+        Guild guild = channel.getGuild();
+        unsubscribe(guild);
+        GuildMusicManager.stopPlayback(guild);
+
+        String identifier = GuildMusicManager.toIdentifier(query).trim();
+        BroadcastSubscriber[] subscriber = new BroadcastSubscriber[1];
+        boolean[] started = new boolean[1];
+        STATIONS.compute(identifier, (key, station) -> {
+            if (station == null) {
+                station = new BroadcastStation(key, GuildMusicManager.getAudioPlayerManager().createPlayer(), bufferFrames);
+                started[0] = true;
+            }
+            station.addSubscriber();
+            subscriber[0] = new BroadcastSubscriber(station, guild, cushionFrames);
+            return station;
+        });
+        SUBSCRIPTIONS.put(guild.getIdLong(), subscriber[0]);
+
+        AudioManager am = guild.getAudioManager();
+        am.setSendingHandler(subscriber[0]);
+        am.openAudioConnection(channel);
+
+        BroadcastStation station = subscriber[0].getStation();
+        if (started[0]) {
+            station.getProducer().addListener(new AudioEventAdapter() {
+                @Override
+                public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                    if (endReason != AudioTrackEndReason.CLEANUP) {
+                        endStation(station);
+                    }
+                }
+            });
+            startPump();
+            GuildMusicManager.getAudioPlayerManager().loadItemOrdered(station, identifier, loadHandler(station, hook));
+        } else {
+            hook.sendMessage("Tuned in to the broadcast (" + station.getSubscriberCount() + " guilds listening).").queue();
+        }
+    }
+
+    /**
+     * Takes the guild off the broadcast it is listening to, if any. The station stops once nobody is left.
+     * The voice connection itself is left as it is.
+     *
+     * @return Whether the guild was listening to a broadcast.
+     */
+    public static boolean unsubscribe(Guild guild) {
+        BroadcastSubscriber subscriber = SUBSCRIPTIONS.get(guild.getIdLong());
+        return subscriber != null && release(subscriber);
+    }
+
+    private static boolean release(BroadcastSubscriber subscriber) {
+        Guild guild = subscriber.getGuild();
+        if (!SUBSCRIPTIONS.remove(guild.getIdLong(), subscriber)) {
+            return false; // Already released
+        }
+        AudioManager am = guild.getAudioManager();
+        if (am.getSendingHandler() == subscriber) {
+            am.setSendingHandler(null);
+        }
+        BroadcastStation station = subscriber.getStation();
+        boolean[] last = new boolean[1];
+        STATIONS.computeIfPresent(station.getIdentifier(), (key, current) -> {
+            if (current == station && station.removeSubscriber() == 0) {
+                last[0] = true;
+                return null;
+            }
+            return current;
+        });
+        if (last[0]) {
+            station.close();
+            log.info("Broadcast ended: {} ({} frames, {} reader skips)", station.getIdentifier(),
+                    station.getFramesProduced(), station.getSkips());
+        }
+        return true;
+    }
+
+    /**
+     * Takes every guild off the station, which then shuts down. Used when its stream ends or fails to load.
+     */
+    private static void endStation(BroadcastStation station) {
+        for (BroadcastSubscriber subscriber : SUBSCRIPTIONS.values()) {
+            if (subscriber.getStation() == station) {
+                release(subscriber);
+            }
+        }
+    }
+
+    /**
+     * @return The number of guilds listening to each live broadcast, keyed by identifier.
+     */
+    public static Map<String, Integer> getListenerCounts() {
+        Map<String, Integer> out = new ConcurrentHashMap<>();
+        STATIONS.forEach((id, station) -> out.put(id, station.getSubscriberCount()));
+        return out;
+    }
+
+    private static AudioLoadResultHandler loadHandler(BroadcastStation station, InteractionHook hook) {
+        AudioPlayer producer = station.getProducer();
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                producer.playTrack(track);
+                log.info("Broadcast started: {}", station.getIdentifier());
+                hook.sendMessage("Broadcasting: " + track.getInfo().title).queue();
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                AudioTrack track = playlist.getSelectedTrack() != null ? playlist.getSelectedTrack() : playlist.getTracks().get(0);
+                trackLoaded(track);
+            }
+
+            @Override
+            public void noMatches() {
+                endStation(station);
+                hook.sendMessage("No matches found for: " + station.getIdentifier()).queue();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                endStation(station);
+                log.error("Failed to load broadcast {}", station.getIdentifier(), exception);
+                hook.sendMessage("Failed to load: " + exception.getMessage()).queue();
+            }
+        };
+    }
+
+    private static void startPump() {
+        if (pump != null) {
+            return;
+        }
+        synchronized (BroadcastManager.class) {
+            if (pump == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "audio-broadcast-pump");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MAX_PRIORITY);
+                    return t;
+                });
+                executor.scheduleAtFixedRate(BroadcastManager::pumpAll, 0, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+                executor.scheduleWithFixedDelay(BroadcastManager::sweepDisconnected,
+                        SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                pump = executor;
+            }
+        }
+    }
+
+    /**
+     * Drops subscriptions of guilds the bot is no longer in voice in (e.g. it was disconnected),
+     * so their stations can shut down. New subscriptions get one sweep interval to connect.
+     */
+    private static void sweepDisconnected() {
+        try {
+            long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(SWEEP_INTERVAL_SECONDS);
+            for (BroadcastSubscriber subscriber : SUBSCRIPTIONS.values()) {
+                Guild guild = subscriber.getGuild();
+                if (subscriber.getSubscribedAtMillis() < cutoff && !guild.getAudioManager().isConnected()) {
+                    release(subscriber);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Error sweeping broadcast subscriptions", e);
+        }
+    }
+
+    private static void pumpAll() {
+        for (BroadcastStation station : STATIONS.values()) {
+            try {
+                station.pump();
+            } catch (RuntimeException e) {
+                log.error("Error reading broadcast {}", station.getIdentifier(), e);
+            }
+        }
+    }
+}
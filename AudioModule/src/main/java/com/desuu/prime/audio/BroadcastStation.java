@@ -0,0 +1,138 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One decoded stream shared by any number of guilds. A single producer player is read every
+ * 20 ms and each Opus frame it yields is copied into a ring buffer; subscribers read the ring
+ * at their own pace, so the source is fetched, decoded and encoded once however many guilds
+ * listen.
+ *
+ * <p>The ring has a single writer (the broadcast pump) and is read without locks. A reader
+ * copies a frame and then checks that the writer has not lapped it in the meantime; a reader
+ * that falls too far behind skips ahead instead of playing stale audio.
+ */
+class BroadcastStation {
+    private final String identifier;
+    private final AudioPlayer producer;
+
+    // Ring buffer of Opus frames
+    private final byte[][] slots;
+    private final int[] lengths;
+    private volatile long written = 0; // Frames written so far; frame n lives in slot n % capacity
+
+    // Producer-side frame, only touched by the pump
+    private final ByteBuffer produceBuffer;
+    private final MutableAudioFrame produceFrame = new MutableAudioFrame();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LongAdder skips = new LongAdder();
+    private volatile boolean closed = false;
+
+    BroadcastStation(String identifier, AudioPlayer producer, int capacityFrames) {
+        this.identifier = identifier;
+        this.producer = producer;
+        int maxChunk = StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize();
+        this.slots = new byte[capacityFrames][maxChunk];
+        this.lengths = new int[capacityFrames];
+        this.produceBuffer = ByteBuffer.allocate(maxChunk);
+        this.produceFrame.setBuffer(produceBuffer);
+    }
+
+    String getIdentifier() {
+        return identifier;
+    }
+
+    AudioPlayer getProducer() {
+        return producer;
+    }
+
+    /**
+     * Pulls at most one frame from the producer into the ring. Called every 20 ms by the pump.
+     */
+    void pump() {
+        if (closed || !producer.provide(produceFrame)) {
+            return;
+        }
+        long sequence = written;
+        int slot = (int) (sequence % slots.length);
+        int length = produceFrame.getDataLength();
+        produceBuffer.flip();
+        produceBuffer.get(slots[slot], 0, length);
+        lengths[slot] = length;
+        written = sequence + 1; // Publishes the slot to readers
+    }
+
+    /**
+     * @return The sequence number a new reader should start at, slightly behind the head for cushioning.
+     */
+    long joinPosition(int cushionFrames) {
+        return Math.max(0, written - cushionFrames);
+    }
+
+    /**
+     * Copies frame {@code sequence} into {@code target}.
+     *
+     * @return {@code sequence + 1} if the frame was copied, {@code sequence} if it has not been
+     * written yet, or {@code -1 - resumeAt} if the reader had fallen behind and should continue
+     * from {@code resumeAt} instead (nothing usable was copied).
+     */
+    long read(long sequence, ByteBuffer target) {
+        long head = written;
+        if (sequence >= head) {
+            return sequence; // Underrun, nothing new yet
+        }
+        if (head - sequence > slots.length / 2) {
+            skips.increment();
+            return -1 - (head - 1); // Too far behind; resume near the head
+        }
+
+        int slot = (int) (sequence % slots.length);
+        int length = lengths[slot];
+        target.clear();
+        target.put(slots[slot], 0, length);
+
+        if (written - sequence >= slots.length - 1) {
+            // The writer reused the slot while we were copying it, or may be about to: once frame
+            // sequence + capacity - 1 is published, the next pump overwrites this slot. Keep a frame of margin.
+            skips.increment();
+            return -1 - (written - 1);
+        }
+        return sequence + 1;
+    }
+
+    int addSubscriber() {
+        return subscribers.incrementAndGet();
+    }
+
+    int removeSubscriber() {
+        return subscribers.decrementAndGet();
+    }
+
+    int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    long getFramesProduced() {
+        return written;
+    }
+
+    long getSkips() {
+        return skips.sum();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        producer.destroy();
+    }
+}
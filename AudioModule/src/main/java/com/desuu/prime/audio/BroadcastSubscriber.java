@@ -0,0 +1,64 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import net.dv8tion.jda.api.entities.Guild;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sends a guild the frames of a {@link BroadcastStation}, reading the station's ring buffer at
+ * its own cursor. Apart from the cursor it only holds one frame buffer.
+ */
+class BroadcastSubscriber implements AudioSendHandler {
+    private final BroadcastStation station;
+    private final Guild guild;
+    private final long subscribedAtMillis = System.currentTimeMillis();
+    private final ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+    private long cursor; // Only touched by the audio thread after construction
+
+    BroadcastSubscriber(BroadcastStation station, Guild guild, int cushionFrames) {
+        this.station = station;
+        this.guild = guild;
+        this.cursor = station.joinPosition(cushionFrames);
+    }
+
+    BroadcastStation getStation() {
+        return station;
+    }
+
+    Guild getGuild() {
+        return guild;
+    }
+
+    long getSubscribedAtMillis() {
+        return subscribedAtMillis;
+    }
+
+    @Override
+    public boolean canProvide() {
+        long next = station.read(cursor, buffer);
+        if (next < 0) {
+            // Fell behind and was moved up; read from the new position
+            cursor = -1 - next;
+            next = station.read(cursor, buffer);
+            if (next < 0) {
+                cursor = -1 - next;
+                return false;
+            }
+        }
+        boolean provided = next != cursor;
+        cursor = next;
+        return provided;
+    }
+
+    @Override
+    public ByteBuffer provide20MsAudio() {
+        return buffer.flip();
+    }
+
+    @Override
+    public boolean isOpus() {
+        return true;
+    }
+}
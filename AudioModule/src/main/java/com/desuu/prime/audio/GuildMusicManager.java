@@ -1,25 +1,65 @@
 package com.desuu.prime.audio;
 
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.channel.concrete.VoiceChannel;
 import net.dv8tion.jda.api.managers.AudioManager;
 import net.dv8tion.jda.api.interactions.InteractionHook;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 /**
  * Manages music playback for a single Discord guild.
  * Holds the AudioPlayer, scheduler, and send handler.
  * Provides load-and-play functionality for YouTube/Spotify/queries.
+ *
+ * <p>Managers are created on demand and released again once a guild has been idle (not in
+ * voice, nothing queued) for a while: the players are destroyed, the audio connection is closed
+ * and the entry is dropped. When the number of live managers reaches the configured cap, the
+ * longest-idle one is released early to make room.
  */
 public class GuildMusicManager {
+    private static final Logger log = LoggerFactory.getLogger(GuildMusicManager.class);
+
     private static AudioPlayerManager audioPlayerManager;
+    private static volatile boolean initialized = false;
     private static final Map<Long, GuildMusicManager> INSTANCES = new ConcurrentHashMap<>();
+    private static TrackResolutionCache resolutionCache; // Null when disabled
+    private static long prefetchMillis = 10_000;
+    private static int decodedQueueWindow = 200;
+    private static boolean pipelineMetrics = true;
+    private static boolean directBuffers = false;
+    private static int pipelineSampleEvery = 50;
+    private static final TransitionMetrics TRANSITIONS = new TransitionMetrics();
+
+    // Lifecycle
+    private static long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    private static int maxLiveManagers = 1000;
+    private static final LongAdder created = new LongAdder();
+    private static final LongAdder evictedIdle = new LongAdder();
+    private static final LongAdder evictedForCap = new LongAdder();
+
+    /** Chime played when something is queued, relative to the working directory. */
+    static final String NOTIFICATION_SOUND = "llama.wav";
 
     private final Guild guild;
 
@@ -27,35 +67,214 @@ public class GuildMusicManager {
      * Initialize with the shared AudioPlayerManager (must be called once at startup).
      */
     public static void init(AudioPlayerManager manager) {
+        init(manager, new Properties());
+    }
+
+    /**
+     * Initialize with an AudioPlayerManager built and tuned from the bot configuration
+     * (see {@link AudioEngineConfig}). Must be called once at startup.
+     */
+    public static void init(Properties config) {
+        init(AudioEngineConfig.createPlayerManager(config), config);
+    }
+
+    /**
+     * Initialize with the shared AudioPlayerManager and the bot configuration (must be called once at startup).
+     */
+    public static void init(AudioPlayerManager manager, Properties config) {
         audioPlayerManager = manager;
+        directBuffers = Boolean.parseBoolean(config.getProperty("audio.engine.direct_buffers", "false"));
+        pipelineMetrics = Boolean.parseBoolean(config.getProperty("audio.metrics.enabled", "true"));
+        pipelineSampleEvery = Integer.parseInt(config.getProperty("audio.metrics.sample_every", "50"));
+        decodedQueueWindow = Integer.parseInt(config.getProperty("audio.queue.decoded_window", "200"));
+        prefetchMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("audio.prefetch.seconds", "10")));
+        idleTimeoutMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty("audio.idle.timeout_minutes", "10")));
+        maxLiveManagers = Integer.parseInt(config.getProperty("audio.idle.max_live_guilds", "1000"));
+        long sweepSeconds = Long.parseLong(config.getProperty("audio.idle.sweep_seconds", "60"));
+        if (Boolean.parseBoolean(config.getProperty("audio.resolve_cache.enabled", "true"))) {
+            resolutionCache = new TrackResolutionCache(manager, config);
+        }
         AudioSourceManagers.registerRemoteSources(audioPlayerManager);
         AudioSourceManagers.registerLocalSource(audioPlayerManager);
+        NotificationSounds.preload(audioPlayerManager, NOTIFICATION_SOUND);
+        BroadcastManager.configure(config);
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "audio-idle-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(GuildMusicManager::sweepIdle, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+        initialized = true;
+    }
+
+    /**
+     * Initializes from the bot configuration unless that already happened, so audio can be set
+     * up lazily on first use instead of at startup.
+     */
+    public static void ensureInitialized(Properties config) {
+        if (initialized) {
+            return;
+        }
+        synchronized (GuildMusicManager.class) {
+            if (!initialized) {
+                long start = System.nanoTime();
+                init(config);
+                log.info("Audio initialized on first use in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+
+    static AudioPlayerManager getAudioPlayerManager() {
+        return audioPlayerManager;
+    }
+
+    /**
+     * @return The shared identifier resolution cache, or null if it is disabled.
+     */
+    public static TrackResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * @return Gap measurements for track-to-track transitions across all guilds.
+     */
+    public static TransitionMetrics getTransitionMetrics() {
+        return TRANSITIONS;
     }
 
     /**
      * Get or create the music manager for the given guild.
      */
     public static GuildMusicManager get(Guild guild) {
-        return INSTANCES.computeIfAbsent(guild.getIdLong(), id -> new GuildMusicManager(guild));
+        if (maxLiveManagers > 0 && INSTANCES.size() >= maxLiveManagers && !INSTANCES.containsKey(guild.getIdLong())) {
+            evictLongestIdle();
+        }
+        // compute rather than computeIfAbsent, so that marking the manager used is atomic with
+        // respect to the sweeper deciding to evict it
+        return INSTANCES.compute(guild.getIdLong(), (id, existing) -> {
+            GuildMusicManager manager = existing;
+            if (manager == null) {
+                manager = new GuildMusicManager(guild);
+                created.increment();
+            }
+            manager.lastUsedMillis = System.currentTimeMillis();
+            return manager;
+        });
+    }
+
+    /**
+     * @return Send path health for every live guild that records it, keyed by guild ID.
+     */
+    public static Map<Long, AudioPipelineMetrics> getPipelineMetrics() {
+        Map<Long, AudioPipelineMetrics> out = new HashMap<>();
+        INSTANCES.forEach((id, manager) -> {
+            AudioPipelineMetrics metrics = manager.sendHandler.getMetrics();
+            if (metrics != null) {
+                out.put(id, metrics);
+            }
+        });
+        return out;
+    }
+
+    public static int getLiveCount() {
+        return INSTANCES.size();
+    }
+
+    public static long getCreatedCount() {
+        return created.sum();
+    }
+
+    public static long getEvictedIdleCount() {
+        return evictedIdle.sum();
+    }
+
+    public static long getEvictedForCapCount() {
+        return evictedForCap.sum();
+    }
+
+    /**
+     * Releases every manager that has been idle for longer than the idle timeout.
+     */
+    private static void sweepIdle() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Long guildId : INSTANCES.keySet()) {
+                if (evictIf(guildId, manager -> manager.idleSinceMillis(now) >= idleTimeoutMillis)) {
+                    evictedIdle.increment();
+                }
+            }
+            log.debug("Music managers: live={}, created={}, evicted idle={}, evicted for cap={}",
+                    getLiveCount(), getCreatedCount(), getEvictedIdleCount(), getEvictedForCapCount());
+        } catch (RuntimeException e) {
+            log.error("Error sweeping idle music managers", e);
+        }
+    }
+
+    /**
+     * Makes room under the cap by releasing the manager that has been idle the longest, if any is idle.
+     */
+    private static void evictLongestIdle() {
+        long now = System.currentTimeMillis();
+        Long candidate = null;
+        long longest = 0;
+        for (Map.Entry<Long, GuildMusicManager> entry : INSTANCES.entrySet()) {
+            long idle = entry.getValue().idleSinceMillis(now);
+            if (idle > longest) {
+                longest = idle;
+                candidate = entry.getKey();
+            }
+        }
+        if (candidate != null && evictIf(candidate, manager -> manager.idleSinceMillis(now) > 0)) {
+            evictedForCap.increment();
+        } else {
+            log.warn("Music manager cap of {} reached with no idle guild to release", maxLiveManagers);
+        }
+    }
+
+    /**
+     * Removes and releases the guild's manager if it still matches the condition at removal time.
+     */
+    private static boolean evictIf(long guildId, Predicate<GuildMusicManager> condition) {
+        GuildMusicManager[] removed = new GuildMusicManager[1];
+        INSTANCES.computeIfPresent(guildId, (id, manager) -> {
+            if (condition.test(manager)) {
+                removed[0] = manager;
+                return null;
+            }
+            return manager;
+        });
+        if (removed[0] == null) {
+            return false;
+        }
+        removed[0].destroy();
+        return true;
     }
 
-    private final AudioPlayer player;
     private final TrackScheduler scheduler;
     private final AudioPlayerSendHandler sendHandler;
+    // Remote loads still in flight; cache hits wait their turn behind them
+    private final AtomicInteger pendingLoads = new AtomicInteger();
+    private volatile long lastUsedMillis = System.currentTimeMillis();
 
     private GuildMusicManager(Guild guild) {
         this.guild = guild;
-        this.player = audioPlayerManager.createPlayer();
-        this.scheduler = new TrackScheduler(player, audioPlayerManager, guild);
-        this.sendHandler = new AudioPlayerSendHandler(player);
+        AudioPlayer player = audioPlayerManager.createPlayer();
+        this.sendHandler = new AudioPlayerSendHandler(player, directBuffers,
+                pipelineMetrics ? new AudioPipelineMetrics(pipelineSampleEvery) : null);
+        this.scheduler = new TrackScheduler(player, audioPlayerManager, guild, sendHandler,
+                new TrackQueue(audioPlayerManager, decodedQueueWindow), prefetchMillis, TRANSITIONS);
     }
 
     public TrackScheduler getScheduler() {
         return scheduler;
     }
 
+    /**
+     * @return The player that is currently playing; see {@link TrackScheduler#getPlayer()}.
+     */
     public AudioPlayer getPlayer() {
-        return player;
+        return scheduler.getPlayer();
     }
 
     public AudioPlayerSendHandler getSendHandler() {
@@ -69,27 +288,96 @@ public class GuildMusicManager {
     public void loadAndPlay(InteractionHook hook, String query, VoiceChannel voiceChannel) {
         connectToVoice(voiceChannel);
 
-        // Determine identifier for search or URL
-        String identifier;
-        if (query.startsWith("http://") || query.startsWith("https://")) {
-            identifier = query;
-        } else {
-            // Use YouTube search for non-URL queries
-            identifier = "ytsearch:" + query;
+        String identifier = toIdentifier(query);
+        AudioLoadResultHandler handler = scheduler.createLoadHandler(identifier, hook);
+        if (resolutionCache != null) {
+            // Answer from the cache unless an earlier request is still loading, which must be queued first
+            if (pendingLoads.get() == 0) {
+                List<byte[]> cached = resolutionCache.lookup(identifier);
+                if (cached != null && scheduler.queueEncoded(cached, hook)) {
+                    return;
+                }
+            }
+            handler = resolutionCache.recording(identifier, handler);
         }
 
         // Load item with ordered execution, send feedback via hook
+        pendingLoads.incrementAndGet();
         audioPlayerManager.loadItemOrdered(
                 this,
                 identifier,
-                scheduler.createLoadHandler(identifier, hook)
+                countingPending(handler)
         );
     }
 
+    /**
+     * Determine identifier for search or URL.
+     */
+    static String toIdentifier(String query) {
+        if (query.startsWith("http://") || query.startsWith("https://")) {
+            return query;
+        }
+        // Use YouTube search for non-URL queries
+        return "ytsearch:" + query;
+    }
+
+    private AudioLoadResultHandler countingPending(AudioLoadResultHandler handler) {
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                try {
+                    handler.trackLoaded(track);
+                } finally {
+                    pendingLoads.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                try {
+                    handler.playlistLoaded(playlist);
+                } finally {
+                    pendingLoads.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void noMatches() {
+                try {
+                    handler.noMatches();
+                } finally {
+                    pendingLoads.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                try {
+                    handler.loadFailed(exception);
+                } finally {
+                    pendingLoads.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops the guild's own playback and clears its queue, if it has a music manager. Used when the
+     * guild tunes in to a broadcast, which takes over the voice connection.
+     */
+    static void stopPlayback(Guild guild) {
+        GuildMusicManager manager = INSTANCES.get(guild.getIdLong());
+        if (manager != null) {
+            manager.scheduler.stop();
+        }
+    }
+
     /**
      * Connect bot to the specified voice channel and set the send handler.
      */
     public void connectToVoice(VoiceChannel channel) {
+        // Playing our own music takes the guild off any broadcast it was listening to
+        BroadcastManager.unsubscribe(channel.getGuild());
         AudioManager am = channel.getGuild().getAudioManager();
         am.setSendingHandler(sendHandler);
         am.openAudioConnection(channel);
@@ -103,14 +391,38 @@ public class GuildMusicManager {
     }
 
     public void pause() {
-        player.setPaused(true);
+        scheduler.getPlayer().setPaused(true);
     }
 
     public void resume() {
-        player.setPaused(false);
+        scheduler.getPlayer().setPaused(false);
     }
 
     public void shuffle() {
         scheduler.shuffleQueue();
     }
+
+    /**
+     * @return How long the guild has been idle in milliseconds, or 0 if it is in use. A guild is
+     * idle while the bot is not in voice there and nothing is queued or loading.
+     */
+    private long idleSinceMillis(long now) {
+        if (guild.getAudioManager().isConnected() || !scheduler.getQueue().isEmpty() || pendingLoads.get() > 0) {
+            return 0;
+        }
+        return Math.max(0, now - lastUsedMillis);
+    }
+
+    /**
+     * Stops playback, releases both players and leaves voice. The manager must not be used afterwards.
+     */
+    private void destroy() {
+        scheduler.destroy();
+        AudioManager am = guild.getAudioManager();
+        if (am.getSendingHandler() == sendHandler) {
+            am.setSendingHandler(null);
+        }
+        am.closeAudioConnection();
+        log.debug("Released music manager for guild {}", guild.getId());
+    }
 }
@@ -0,0 +1,113 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Short notification clips, decoded once and kept in memory as ready-to-send Opus frames.
+ * The clips are shared by every guild and played straight from memory by
+ * {@link AudioPlayerSendHandler#playClip}, with no loading or decoding per use.
+ */
+final class NotificationSounds {
+    private static final Logger log = LoggerFactory.getLogger(NotificationSounds.class);
+    private static final long MAX_DECODE_MILLIS = 10_000;
+
+    private static final Map<String, byte[][]> CLIPS = new ConcurrentHashMap<>();
+
+    private NotificationSounds() {
+    }
+
+    /**
+     * Decodes the clip at the given path and caches its frames. Blocks until decoding is done.
+     *
+     * @return true if the clip was loaded.
+     */
+    static boolean preload(AudioPlayerManager manager, String path) {
+        AudioItem item;
+        try {
+            item = manager.loadItemSync(path);
+        } catch (RuntimeException e) {
+            log.error("Failed to load notification sound '{}': {}", path, e.getMessage());
+            return false;
+        }
+        if (!(item instanceof AudioTrack)) {
+            log.warn("Notification sound not found at path: {}", path);
+            return false;
+        }
+
+        AudioPlayer player = manager.createPlayer();
+        try {
+            byte[][] frames = decode(player, (AudioTrack) item);
+            if (frames.length == 0) {
+                log.warn("Notification sound '{}' decoded to no audio", path);
+                return false;
+            }
+            CLIPS.put(path, frames);
+            log.info("Cached notification sound '{}' ({} frames)", path, frames.length);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            player.destroy();
+        }
+    }
+
+    /**
+     * @return The cached frames for the clip, or null if it was never loaded.
+     */
+    static byte[][] get(String path) {
+        return CLIPS.get(path);
+    }
+
+    /**
+     * Plays the track on a private player and pulls every frame out of it as fast as it decodes.
+     */
+    private static byte[][] decode(AudioPlayer player, AudioTrack track) throws InterruptedException {
+        EndListener listener = new EndListener();
+        player.addListener(listener);
+        player.playTrack(track);
+
+        List<byte[]> frames = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + MAX_DECODE_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            AudioFrame frame;
+            try {
+                frame = player.provide(50, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                frame = null;
+            }
+            if (frame != null) {
+                if (!frame.isTerminator()) {
+                    frames.add(frame.getData());
+                }
+            } else if (listener.ended) {
+                break;
+            }
+        }
+        return frames.toArray(new byte[0][]);
+    }
+
+    private static class EndListener extends AudioEventAdapter {
+        private volatile boolean ended = false;
+
+        @Override
+        public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts tracks to and from LavaPlayer's compact encoded form.
+ */
+final class TrackCodec {
+    private static final Logger log = LoggerFactory.getLogger(TrackCodec.class);
+
+    private TrackCodec() {
+    }
+
+    /**
+     * @return The tracks encoded into one blob, or null if any of them cannot be encoded.
+     */
+    static byte[] encode(AudioPlayerManager manager, List<AudioTrack> tracks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageOutput output = new MessageOutput(bytes);
+        try {
+            for (AudioTrack track : tracks) {
+                manager.encodeTrack(output, track);
+            }
+            output.finish();
+            return bytes.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            // Some sources (e.g. local files under unusual paths) cannot be encoded
+            log.debug("Could not encode tracks: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return Fresh, playable tracks decoded from a blob, or null if it cannot be read.
+     */
+    static List<AudioTrack> decode(AudioPlayerManager manager, byte[] encoded) {
+        MessageInput input = new MessageInput(new ByteArrayInputStream(encoded));
+        List<AudioTrack> tracks = new ArrayList<>();
+        try {
+            DecodedTrackHolder holder;
+            while ((holder = manager.decodeTrack(input)) != null) {
+                if (holder.decodedTrack != null) {
+                    tracks.add(holder.decodedTrack);
+                }
+            }
+            return tracks;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not decode tracks: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Splits a blob holding several tracks into one blob per track without decoding any of them.
+     * Relies on {@link MessageOutput} framing each track as an int header, whose low 30 bits are
+     * the message size, followed by the message, with a zero header at the end.
+     *
+     * @return One blob per track, each readable by {@link #decode}, or null if the blob is malformed.
+     */
+    static List<byte[]> split(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        List<byte[]> tracks = new ArrayList<>();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int size = buffer.getInt() & 0x3FFFFFFF;
+            if (size == 0) {
+                return tracks;
+            }
+            if (size > buffer.remaining()) {
+                break;
+            }
+            // The message, followed by the zero header that a new array already holds
+            byte[] track = new byte[4 + size + 4];
+            System.arraycopy(encoded, start, track, 0, 4 + size);
+            tracks.add(track);
+            buffer.position(buffer.position() + size);
+        }
+        log.warn("Could not split encoded tracks: truncated blob");
+        return null;
+    }
+}
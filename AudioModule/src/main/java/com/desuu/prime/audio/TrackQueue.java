@@ -0,0 +1,374 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The track queue of a guild, kept as an implicit treap: a randomized balanced tree ordered by
+ * position, where every node knows the size of its subtree. That makes appending, taking the head,
+ * reading, removing or moving the track at any index O(log n), and shuffling O(n) without
+ * rebuilding anything, so very long playlists stay cheap to manipulate and list.
+ *
+ * <p>All operations lock the queue, so each one, including a shuffle, is atomic with respect to
+ * the scheduler taking the next track.
+ *
+ * <p>Tracks that arrive in LavaPlayer's encoded form (resolution cache hits) and land beyond the
+ * first {@code decodedWindow} positions stay encoded and are decoded the first time they are
+ * looked at, so a huge cached playlist costs a few hundred bytes per entry until it gets close to
+ * playing. Decoding creates a new track object, which from then on is the one returned for that
+ * position. Tracks that arrive decoded are kept as they are. Whenever a shuffle, move or removal
+ * gives the queue a new head, it is decoded right away, so taking the next track when one ends
+ * does not have to decode.
+ */
+public class TrackQueue {
+    private final AudioPlayerManager manager;
+    private final int decodedWindow;
+    private Node root;
+
+    /**
+     * Creates a queue for tracks that arrive decoded; it cannot take encoded ones.
+     */
+    public TrackQueue() {
+        this(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param manager       Used to decode deferred tracks.
+     * @param decodedWindow Positions from the head that encoded tracks are decoded within when added.
+     */
+    public TrackQueue(AudioPlayerManager manager, int decodedWindow) {
+        this.manager = manager;
+        this.decodedWindow = decodedWindow;
+    }
+
+    public synchronized int size() {
+        return size(root);
+    }
+
+    public synchronized boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Appends a track to the end of the queue.
+     */
+    public synchronized void add(AudioTrack track) {
+        root = merge(root, new Node(track));
+    }
+
+    /**
+     * Appends tracks to the end of the queue in one step. The new part of the tree is built in
+     * linear time rather than by inserting the tracks one at a time.
+     */
+    public void addAll(Collection<? extends AudioTrack> tracks) {
+        List<Node> nodes = new ArrayList<>(tracks.size());
+        for (AudioTrack track : tracks) {
+            nodes.add(new Node(track));
+        }
+        append(nodes);
+    }
+
+    /**
+     * Appends tracks that are still encoded, one blob per track, in one step. Those that land
+     * within the decoded window are decoded before the queue is locked and dropped if they cannot
+     * be; the rest are kept encoded.
+     */
+    public void addAllEncoded(List<byte[]> tracks) {
+        if (manager == null) {
+            throw new IllegalStateException("This queue has no player manager to decode tracks with");
+        }
+        // The current length only decides roughly where deferral starts, so it can be read unlocked
+        int eager = Math.max(0, decodedWindow - size());
+        List<Node> nodes = new ArrayList<>(tracks.size());
+        for (byte[] encoded : tracks) {
+            Node node = new Node(null);
+            node.encoded = encoded;
+            if (nodes.size() < eager && materialize(node) == null) {
+                continue;
+            }
+            nodes.add(node);
+        }
+        append(nodes);
+    }
+
+    private void append(List<Node> nodes) {
+        Node subtree = build(nodes);
+        synchronized (this) {
+            root = merge(root, subtree);
+        }
+    }
+
+    /**
+     * @return The track at the head of the queue, or null if it is empty.
+     */
+    public synchronized AudioTrack peek() {
+        while (root != null) {
+            Node node = root;
+            while (node.left != null) {
+                node = node.left;
+            }
+            AudioTrack track = materialize(node);
+            if (track != null) {
+                return track;
+            }
+            removeNode(0); // Undecodable; drop it rather than stall the queue
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the track at the head of the queue, or null if it is empty.
+     */
+    public synchronized AudioTrack poll() {
+        while (root != null) {
+            AudioTrack track = materialize(removeNode(0));
+            if (track != null) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The track at the given position, counting from 0 at the head, or null if it was
+     * deferred and can no longer be decoded.
+     */
+    public synchronized AudioTrack get(int index) {
+        checkIndex(index);
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return materialize(node);
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the track at the given position (null if it cannot be decoded).
+     */
+    public synchronized AudioTrack remove(int index) {
+        checkIndex(index);
+        AudioTrack track = materialize(removeNode(index));
+        if (index == 0) {
+            decodeHead();
+        }
+        return track;
+    }
+
+    /**
+     * Moves the track at {@code from} so that it ends up at position {@code to}.
+     */
+    public synchronized void move(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        Node[] head = split(root, from);
+        Node[] tail = split(head[1], 1);
+        Node rest = merge(head[0], tail[1]);
+        Node[] at = split(rest, to);
+        root = merge(merge(at[0], tail[0]), at[1]);
+        if (from == 0 || to == 0) {
+            decodeHead();
+        }
+    }
+
+    /**
+     * Shuffles the queue in place. The tree's shape depends only on positions, so it is enough
+     * to Fisher-Yates shuffle the tracks across the existing nodes.
+     */
+    public synchronized void shuffle() {
+        shuffle(ThreadLocalRandom.current());
+    }
+
+    public synchronized void shuffle(Random random) {
+        List<Node> nodes = new ArrayList<>(size(root));
+        collect(root, nodes);
+        for (int i = nodes.size() - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Node a = nodes.get(i);
+            Node b = nodes.get(j);
+            AudioTrack swapTrack = a.track;
+            byte[] swapEncoded = a.encoded;
+            a.track = b.track;
+            a.encoded = b.encoded;
+            b.track = swapTrack;
+            b.encoded = swapEncoded;
+        }
+        decodeHead();
+    }
+
+    public synchronized void clear() {
+        root = null;
+    }
+
+    /**
+     * @return Up to {@code count} tracks starting at position {@code from}, e.g. for a page of a
+     * queue listing. Deferred tracks in the range are decoded.
+     */
+    public synchronized List<AudioTrack> list(int from, int count) {
+        List<AudioTrack> out = new ArrayList<>(Math.max(0, Math.min(count, size(root) - from)));
+        collectRange(root, from, from + count, 0, out);
+        return out;
+    }
+
+    private Node removeNode(int index) {
+        Node[] head = split(root, index);
+        Node[] tail = split(head[1], 1);
+        root = merge(head[0], tail[1]);
+        return tail[0];
+    }
+
+    /**
+     * Decodes the head if it is deferred, so the scheduler's poll when a track ends finds it ready.
+     * Undecodable heads are dropped, as {@link #peek()} would.
+     */
+    private void decodeHead() {
+        peek();
+    }
+
+    /**
+     * Returns the node's track, decoding it first if it was deferred.
+     */
+    private AudioTrack materialize(Node node) {
+        if (node.track == null && node.encoded != null) {
+            List<AudioTrack> decoded = TrackCodec.decode(manager, node.encoded);
+            node.track = decoded == null || decoded.isEmpty() ? null : decoded.get(0);
+            node.encoded = null;
+        }
+        return node.track;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size(root)) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for queue of " + size(root));
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Joins two trees where every position in {@code a} comes before every position in {@code b}.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.update();
+        return b;
+    }
+
+    /**
+     * Splits a tree into its first {@code count} positions and the rest.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node[] parts = split(node.left, count);
+            node.left = parts[1];
+            node.update();
+            return new Node[]{parts[0], node};
+        }
+        Node[] parts = split(node.right, count - leftSize - 1);
+        node.right = parts[0];
+        node.update();
+        return new Node[]{node, parts[1]};
+    }
+
+    /**
+     * Builds a treap holding the tracks in order, in linear time, by keeping the right spine of
+     * the tree on a stack (the usual Cartesian tree construction).
+     */
+    private static Node build(List<Node> nodes) {
+        Deque<Node> spine = new ArrayDeque<>();
+        for (Node node : nodes) {
+            Node last = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                last = spine.pop();
+                last.update();
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        Node top = null;
+        while (!spine.isEmpty()) {
+            top = spine.pop();
+            top.update();
+        }
+        return top;
+    }
+
+    private static void collect(Node node, List<Node> out) {
+        Deque<Node> stack = new ArrayDeque<>();
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            out.add(node);
+            node = node.right;
+        }
+    }
+
+    private void collectRange(Node node, int from, int to, int offset, List<AudioTrack> out) {
+        if (node == null || from >= offset + node.size || to <= offset) {
+            return;
+        }
+        int position = offset + size(node.left);
+        collectRange(node.left, from, to, offset, out);
+        if (position >= from && position < to) {
+            AudioTrack track = materialize(node);
+            if (track != null) {
+                out.add(track);
+            }
+        }
+        collectRange(node.right, from, to, position + 1, out);
+    }
+
+    private static class Node {
+        AudioTrack track;
+        byte[] encoded; // Set instead of track while deferred
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(AudioTrack track) {
+            this.track = track;
+        }
+
+        void update() {
+            size = 1 + TrackQueue.size(left) + TrackQueue.size(right);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers what identifiers and search queries resolved to, so that repeated requests for the
+ * same song are answered from memory instead of another remote lookup. Results are stored in
+ * LavaPlayer's encoded track format and handed out still encoded, one blob per track, so a long
+ * cached playlist is only decoded as its tracks get close to playing.
+ *
+ * <p>Entries expire after a TTL and the least recently used are evicted once the cache is full.
+ * If a file is configured the cache is loaded from it at startup and written back periodically
+ * and on shutdown.
+ */
+public class TrackResolutionCache {
+    private static final Logger log = LoggerFactory.getLogger(TrackResolutionCache.class);
+    private static final int FILE_VERSION = 1;
+    private static final long SAVE_INTERVAL_MINUTES = 5;
+
+    private final AudioPlayerManager manager;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path file;
+
+    private final LinkedHashMap<String, Resolution> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private boolean dirty = false;
+
+    TrackResolutionCache(AudioPlayerManager manager, Properties config) {
+        this.manager = manager;
+        this.maxEntries = Integer.parseInt(config.getProperty("audio.resolve_cache.max_entries", "2000"));
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty("audio.resolve_cache.ttl_minutes", "360")));
+        String path = config.getProperty("audio.resolve_cache.file", "");
+        this.file = path.isBlank() ? null : Path.of(path);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        if (file != null) {
+            load();
+            ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "audio-resolve-cache-saver");
+                t.setDaemon(true);
+                return t;
+            });
+            saver.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::save, "audio-resolve-cache-flush"));
+        }
+    }
+
+    /**
+     * Looks up what the identifier resolved to, without decoding it.
+     *
+     * @return The resolved tracks in order, one encoded blob each (a single track resolution has
+     * one), or null on a miss.
+     */
+    List<byte[]> lookup(String identifier) {
+        String key = normalize(identifier);
+        Resolution resolution;
+        synchronized (this) {
+            resolution = entries.get(key);
+            if (resolution != null && resolution.storedAtMillis + ttlMillis <= System.currentTimeMillis()) {
+                entries.remove(key);
+                dirty = true;
+                resolution = null;
+            }
+        }
+
+        List<byte[]> tracks = resolution == null ? null : TrackCodec.split(resolution.encoded);
+        if (tracks == null || tracks.isEmpty()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return tracks;
+    }
+
+    /**
+     * Wraps a load handler so that whatever the identifier resolves to is stored before being passed on.
+     */
+    AudioLoadResultHandler recording(String identifier, AudioLoadResultHandler handler) {
+        String key = normalize(identifier);
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                store(key, null, false, -1, List.of(track));
+                handler.trackLoaded(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                List<AudioTrack> tracks = playlist.getTracks();
+                store(key, playlist.getName() == null ? "" : playlist.getName(), playlist.isSearchResult(),
+                        tracks.indexOf(playlist.getSelectedTrack()), tracks);
+                handler.playlistLoaded(playlist);
+            }
+
+            @Override
+            public void noMatches() {
+                handler.noMatches();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                handler.loadFailed(exception);
+            }
+        };
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The fraction of lookups answered from the cache, or 0 before any lookup.
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d, hits=%d, misses=%d, hit rate=%.1f%%",
+                size(), getHits(), getMisses(), getHitRate() * 100);
+    }
+
+    private void store(String key, String playlistName, boolean searchResult, int selectedIndex, List<AudioTrack> tracks) {
+        byte[] encoded = TrackCodec.encode(manager, tracks);
+        if (encoded == null) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, new Resolution(playlistName, searchResult, selectedIndex, encoded, System.currentTimeMillis()));
+            dirty = true;
+        }
+    }
+
+    /**
+     * URLs are used as given; search queries are lower-cased with whitespace collapsed,
+     * so "ytsearch:Never  Gonna" and "ytsearch:never gonna" share an entry.
+     */
+    private static String normalize(String identifier) {
+        String trimmed = identifier.trim();
+        if (trimmed.startsWith("http://") || trimmed.startsWith("https://")) {
+            return trimmed;
+        }
+        return trimmed.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                log.warn("Ignoring resolution cache file {} written by another version", file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long storedAt = in.readLong();
+                String playlistName = in.readBoolean() ? in.readUTF() : null;
+                boolean searchResult = in.readBoolean();
+                int selectedIndex = in.readInt();
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                if (storedAt + ttlMillis > now) {
+                    entries.put(key, new Resolution(playlistName, searchResult, selectedIndex, encoded, storedAt));
+                }
+            }
+            log.info("Loaded {} cached track resolutions from {}", entries.size(), file);
+        } catch (IOException e) {
+            log.warn("Could not read resolution cache file {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the cache to a temporary file and moves it into place, if anything changed.
+     */
+    private void save() {
+        List<Map.Entry<String, Resolution>> snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new ArrayList<>(entries.entrySet());
+            dirty = false;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Resolution> entry : snapshot) {
+                    Resolution r = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(r.storedAtMillis);
+                    out.writeBoolean(r.playlistName != null);
+                    if (r.playlistName != null) {
+                        out.writeUTF(r.playlistName);
+                    }
+                    out.writeBoolean(r.searchResult);
+                    out.writeInt(r.selectedIndex);
+                    out.writeInt(r.encoded.length);
+                    out.write(r.encoded);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write resolution cache file {}: {}", file, e.getMessage());
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * What an identifier resolved to. A null playlist name means a single track.
+     */
+    private static class Resolution {
+        final String playlistName;
+        final boolean searchResult;
+        final int selectedIndex;
+        final byte[] encoded;
+        final long storedAtMillis;
+
+        Resolution(String playlistName, boolean searchResult, int selectedIndex, byte[] encoded, long storedAtMillis) {
+            this.playlistName = playlistName;
+            this.searchResult = searchResult;
+            this.selectedIndex = selectedIndex;
+            this.encoded = encoded;
+            this.storedAtMillis = storedAtMillis;
+        }
+    }
+}
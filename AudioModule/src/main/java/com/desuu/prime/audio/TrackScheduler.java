@@ -15,36 +15,73 @@ import org.slf4j.LoggerFactory;
 import net.dv8tion.jda.api.entities.Guild;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Plays queued tracks one after another.
+ *
+ * <p>To avoid a gap between tracks, the head of the queue is prefetched during the last few
+ * seconds of the current track: a copy of it is started on a paused standby player, which opens
+ * the stream and fills its frame buffer. When the current track finishes, the send handler is
+ * switched over to the standby player and the two players trade places.
+ */
 public class TrackScheduler extends AudioEventAdapter {
     private static final Logger log = LoggerFactory.getLogger(TrackScheduler.class);
+    private static final long PREFETCH_RETRY_MILLIS = 1000;
 
-    private final AudioPlayer player;
+    // Shared by all guilds; the timers only start prefetches, which return immediately
+    private static final ScheduledExecutorService PREFETCH_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "audio-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // The player currently feeding the send handler
+    private volatile AudioPlayer player;
     private final AudioPlayerManager playerManager;
-    private final BlockingQueue<AudioTrack> queue;
+    private final TrackQueue queue;
     private final Guild guild;
 
-    // State for interrupting playback with a notification sound
-    private boolean isPlayingNotification = false;
-    private AudioTrack interruptedTrack = null;
-    private long interruptedTrackPosition = 0;
+    private final AudioPlayerSendHandler sendHandler;
+    private final long prefetchMillis;
+    private final TransitionMetrics transitions;
+
+    // Prefetch state, guarded by this
+    private AudioPlayer standby;            // Created on first use
+    private AudioTrack prefetchedSource;    // The queue entry the standby player is warming up
+    private ScheduledFuture<?> prefetchTimer;
 
     /**
-     * Constructor now takes an AudioPlayer *and* its AudioPlayerManager.
+     * Constructor now takes an AudioPlayer *and* its AudioPlayerManager, plus the send handler
+     * that plays notification clips over the player.
+     *
+     * @param queue          The queue to play from.
+     * @param prefetchMillis How long before the end of a track to start prefetching the next one; 0 disables it.
      */
-    public TrackScheduler(AudioPlayer player, AudioPlayerManager playerManager, Guild guild) {
+    public TrackScheduler(AudioPlayer player, AudioPlayerManager playerManager, Guild guild,
+                          AudioPlayerSendHandler sendHandler, TrackQueue queue,
+                          long prefetchMillis, TransitionMetrics transitions) {
         this.player = player;
         this.playerManager = playerManager;
-        this.queue = new LinkedBlockingQueue<>();
+        this.sendHandler = sendHandler;
+        this.queue = queue;
         this.guild = guild;
+        this.prefetchMillis = prefetchMillis;
+        this.transitions = transitions;
         this.player.addListener(this);
     }
 
+    /**
+     * @return The player that is currently playing. It changes whenever a prefetched track takes over.
+     */
+    public AudioPlayer getPlayer() {
+        return player;
+    }
+
     /**
      * Queue a local audio file for playback. The file path is converted to a URI
      * and loaded via the AudioPlayerManager. We handle track vs playlist results.
@@ -61,15 +98,9 @@ public class TrackScheduler extends AudioEventAdapter {
 
             @Override
             public void playlistLoaded(AudioPlaylist playlist) {
-                boolean soundPlayed = false;
-                // Successfully loaded a playlist – queue each track.
-                for (AudioTrack t : playlist.getTracks()) {
-                    queue(t);
-                    if (!soundPlayed) {
-                        playNotificationSound();
-                        soundPlayed = true;
-                    }
-                }
+                // Successfully loaded a playlist – queue all of its tracks at once.
+                queueAll(playlist.getTracks());
+                playNotificationSound();
             }
 
             @Override
@@ -92,8 +123,56 @@ public class TrackScheduler extends AudioEventAdapter {
      */
     public void queue(AudioTrack track) {
         if (!player.startTrack(track, true)) {
-            queue.offer(track);
+            queue.add(track);
+        }
+    }
+
+    /**
+     * Queues several tracks in one step. At most the first is started on the player, and the
+     * rest are appended to the queue together rather than one at a time.
+     */
+    public void queueAll(List<AudioTrack> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        int start = player.startTrack(tracks.get(0), true) ? 1 : 0;
+        queue.addAll(tracks.subList(start, tracks.size()));
+    }
+
+    /**
+     * Queues tracks that are still in LavaPlayer's encoded form, such as resolution cache hits,
+     * and reports them the way {@link #createLoadHandler} does. The first is decoded if it can start
+     * right away; the rest are handed to the queue encoded (see {@link TrackQueue#addAllEncoded}).
+     *
+     * @return false if nothing was queued because a single track could not be decoded.
+     */
+    public boolean queueEncoded(List<byte[]> tracks, InteractionHook hook) {
+        if (tracks.size() == 1) {
+            // A single track is decoded anyway to name it in the reply
+            List<AudioTrack> decoded = TrackCodec.decode(playerManager, tracks.get(0));
+            if (decoded == null || decoded.isEmpty()) {
+                return false;
+            }
+            queue(decoded.get(0));
+            playNotificationSound();
+            log.info("Queued cached track: {}", decoded.get(0).getInfo().title);
+            hook.sendMessage("Queued track: " + decoded.get(0).getInfo().title).queue();
+            return true;
+        }
+
+        List<byte[]> rest = tracks;
+        if (player.getPlayingTrack() == null) {
+            List<AudioTrack> first = TrackCodec.decode(playerManager, tracks.get(0));
+            if (first != null && !first.isEmpty()) {
+                queue(first.get(0));
+                rest = tracks.subList(1, tracks.size());
+            }
         }
+        queue.addAllEncoded(rest);
+        playNotificationSound();
+        log.info("Queued cached playlist with {} tracks.", tracks.size());
+        hook.sendMessage("Queued playlist with " + tracks.size() + " tracks.").queue();
+        return true;
     }
 
     /**
@@ -107,15 +186,49 @@ public class TrackScheduler extends AudioEventAdapter {
     }
 
     /**
-     * Shuffle the remaining tracks in the queue randomly.
+     * Clears the queue and stops playback, keeping the players for later use.
      */
-    public void shuffleQueue() {
-        synchronized (queue) {
-            List<AudioTrack> list = new ArrayList<>(queue);
-            Collections.shuffle(list);
+    public void stop() {
+        synchronized (this) {
+            cancelPrefetchTimer();
+            discardPrefetch();
             queue.clear();
-            queue.addAll(list);
         }
+        // Outside the lock: stopping fires onTrackEnd under the player's own lock
+        player.stopTrack();
+    }
+
+    /**
+     * Clears the queue and destroys the players. Used when the guild's music manager is released.
+     */
+    public void destroy() {
+        AudioPlayer oldStandby;
+        synchronized (this) {
+            cancelPrefetchTimer();
+            discardPrefetch();
+            queue.clear();
+            oldStandby = standby;
+            standby = null;
+        }
+        // Outside the lock, as in stop(): destroying fires onTrackEnd under the player's own lock
+        if (oldStandby != null) {
+            oldStandby.destroy();
+        }
+        player.destroy();
+    }
+
+    /**
+     * Shuffle the remaining tracks in the queue randomly.
+     */
+    public void shuffleQueue() {
+        queue.shuffle();
+    }
+
+    /**
+     * @return The upcoming tracks, not including the one playing.
+     */
+    public TrackQueue getQueue() {
+        return queue;
     }
 
     public AudioLoadResultHandler createLoadHandler(String identifier, InteractionHook hook) {
@@ -130,14 +243,8 @@ public class TrackScheduler extends AudioEventAdapter {
 
             @Override
             public void playlistLoaded(AudioPlaylist playlist) {
-                boolean soundPlayed = false;
-                for (AudioTrack track : playlist.getTracks()) {
-                    queue(track);
-                    if (!soundPlayed) {
-                        playNotificationSound(); // Play sound once for playlist
-                        soundPlayed = true;
-                    }
-                }
+                queueAll(playlist.getTracks());
+                playNotificationSound(); // Play sound once for playlist
                 log.info("Queued playlist with {} tracks.", playlist.getTracks().size());
                 hook.sendMessage("Queued playlist with " + playlist.getTracks().size() + " tracks.").queue();
             }
@@ -156,76 +263,127 @@ public class TrackScheduler extends AudioEventAdapter {
         };
     }
 
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        if (player == this.player) {
+            schedulePrefetch(track);
+        }
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack endedTrack, AudioTrackEndReason endReason) {
-        // Check if the track that just ended was our notification sound
-        if (isPlayingNotification) {
-            isPlayingNotification = false;
-
-            // If a track was interrupted, we resume it.
-            if (this.interruptedTrack != null) {
-                log.info("Resuming interrupted track: {}", interruptedTrack.getInfo().title);
-                // We must clone the track to play it again and seek to its previous position.
-                AudioTrack trackToResume = this.interruptedTrack.makeClone();
-                trackToResume.setPosition(this.interruptedTrackPosition);
-                player.playTrack(trackToResume);
-
-                // Clear the state
-                this.interruptedTrack = null;
-                this.interruptedTrackPosition = 0;
+        if (player != this.player) {
+            return; // The standby player dropping a prefetched track
+        }
+
+        synchronized (this) {
+            cancelPrefetchTimer();
+            if (!endReason.mayStartNext) {
+                discardPrefetch();
+                return;
+            }
+
+            AudioTrack next = queue.poll();
+            if (next == null) {
+                discardPrefetch();
+                return;
+            }
+
+            if (next == prefetchedSource && standby.getPlayingTrack() != null) {
+                // Hand the send handler over to the already-buffered standby player
+                AudioPlayer previous = this.player;
+                this.player = standby;
+                standby = previous;
+                prefetchedSource = null;
+                sendHandler.beginTransition(transitions, true);
+                sendHandler.setPlayer(this.player);
+                this.player.setPaused(false);
+                schedulePrefetch(this.player.getPlayingTrack());
+                log.debug("Switched to prefetched track: {}", next.getInfo().title);
             } else {
-                // No track was interrupted, so play the next song from the main queue.
-                player.startTrack(queue.poll(), false);
+                discardPrefetch();
+                sendHandler.beginTransition(transitions, false);
+                player.startTrack(next, false);
             }
-            return; // Our custom logic is done for this event.
         }
+    }
 
-        // Original logic for when a regular track finishes
-        if (endReason.mayStartNext) {
-            player.startTrack(queue.poll(), false);
+    /**
+     * Arms a timer that prefetches the next track shortly before the given one ends.
+     */
+    private synchronized void schedulePrefetch(AudioTrack track) {
+        cancelPrefetchTimer();
+        if (prefetchMillis <= 0 || track == null || track.getInfo().isStream || track.getDuration() == Long.MAX_VALUE) {
+            return;
         }
+        long delay = Math.max(0, track.getDuration() - track.getPosition() - prefetchMillis);
+        prefetchTimer = PREFETCH_TIMER.schedule(() -> prefetch(track), delay, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Interrupts the current track to play a notification sound, then resumes.
-     * Assumes 'llama.wav' is in the application's working directory.
+     * Starts a copy of the queue head on the paused standby player so its stream is open and
+     * buffered by the time the current track ends.
      */
-    private void playNotificationSound() {
-        // Don't play a sound if the bot isn't in a voice channel or if we're already playing one.
-        if (isPlayingNotification || !guild.getAudioManager().isConnected()) {
+    private synchronized void prefetch(AudioTrack current) {
+        prefetchTimer = null;
+        if (player.getPlayingTrack() != current) {
             return;
         }
 
-        AudioTrack currentlyPlaying = player.getPlayingTrack();
-        if (currentlyPlaying != null) {
-            this.interruptedTrack = currentlyPlaying;
-            this.interruptedTrackPosition = currentlyPlaying.getPosition();
+        long remaining = current.getDuration() - current.getPosition();
+        AudioTrack head = queue.peek();
+        if (remaining > prefetchMillis + PREFETCH_RETRY_MILLIS || head == null) {
+            // Paused or seeked back since the timer was set, or nothing queued yet; look again later
+            long delay = head == null ? PREFETCH_RETRY_MILLIS : remaining - prefetchMillis;
+            prefetchTimer = PREFETCH_TIMER.schedule(() -> prefetch(current), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (head == prefetchedSource) {
+            return;
         }
 
-        String soundFilePath = "llama.wav";
-        playerManager.loadItem(soundFilePath, new AudioLoadResultHandler() {
-            @Override
-            public void trackLoaded(AudioTrack track) {
-                isPlayingNotification = true;
-                // Use playTrack to immediately start, which will stop the current track.
-                player.playTrack(track);
-                log.info("Playing notification sound.");
-            }
+        discardPrefetch();
+        if (standby == null) {
+            standby = playerManager.createPlayer();
+            standby.addListener(this);
+        }
+        standby.setPaused(true);
+        standby.setVolume(player.getVolume());
+        // Play a clone so the queued track itself stays playable if the prefetch is thrown away
+        standby.playTrack(head.makeClone());
+        prefetchedSource = head;
+        log.debug("Prefetching next track: {}", head.getInfo().title);
+    }
 
-            @Override
-            public void playlistLoaded(AudioPlaylist playlist) { /* Should not happen for a .wav file */ }
+    private synchronized void discardPrefetch() {
+        if (prefetchedSource != null) {
+            prefetchedSource = null;
+            standby.stopTrack();
+        }
+    }
 
-            @Override
-            public void noMatches() {
-                log.warn("Notification sound not found at path: {}", soundFilePath);
-                interruptedTrack = null; // Clear interruption state so playback isn't blocked
-            }
+    private synchronized void cancelPrefetchTimer() {
+        if (prefetchTimer != null) {
+            prefetchTimer.cancel(false);
+            prefetchTimer = null;
+        }
+    }
 
-            @Override
-            public void loadFailed(FriendlyException exception) {
-                log.error("Failed to load notification sound '{}': {}", soundFilePath, exception.getMessage());
-                interruptedTrack = null; // Clear interruption state
-            }
-        });
+    /**
+     * Plays the notification chime over the current track. The chime is decoded once at startup
+     * (see {@link NotificationSounds}); the track pauses underneath it and resumes where it was.
+     */
+    private void playNotificationSound() {
+        // Don't play a sound if the bot isn't in a voice channel.
+        if (!guild.getAudioManager().isConnected()) {
+            return;
+        }
+
+        byte[][] frames = NotificationSounds.get(GuildMusicManager.NOTIFICATION_SOUND);
+        if (frames == null) {
+            return; // Not available; it was logged when preloading failed
+        }
+        sendHandler.playClip(frames);
+        log.info("Playing notification sound.");
     }
 }
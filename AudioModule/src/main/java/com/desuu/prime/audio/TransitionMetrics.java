@@ -0,0 +1,60 @@
+package com.desuu.prime.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the silence between one track ending and the first frame of the next being sent,
+ * separately for transitions onto a prefetched track and cold starts.
+ */
+public class TransitionMetrics {
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder prefetchedGapNanos = new LongAdder();
+    private final LongAdder cold = new LongAdder();
+    private final LongAdder coldGapNanos = new LongAdder();
+    private final AtomicLong maxGapNanos = new AtomicLong();
+
+    void record(long gapNanos, boolean wasPrefetched) {
+        if (wasPrefetched) {
+            prefetched.increment();
+            prefetchedGapNanos.add(gapNanos);
+        } else {
+            cold.increment();
+            coldGapNanos.add(gapNanos);
+        }
+        maxGapNanos.accumulateAndGet(gapNanos, Math::max);
+    }
+
+    public long getPrefetchedTransitions() {
+        return prefetched.sum();
+    }
+
+    public long getColdTransitions() {
+        return cold.sum();
+    }
+
+    public long getAveragePrefetchedGapMillis() {
+        return averageMillis(prefetchedGapNanos, prefetched);
+    }
+
+    public long getAverageColdGapMillis() {
+        return averageMillis(coldGapNanos, cold);
+    }
+
+    public long getMaxGapMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxGapNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("prefetched=%d (avg gap %dms), cold=%d (avg gap %dms), max gap=%dms",
+                getPrefetchedTransitions(), getAveragePrefetchedGapMillis(), getColdTransitions(),
+                getAverageColdGapMillis(), getMaxGapMillis());
+    }
+
+    private static long averageMillis(LongAdder totalNanos, LongAdder count) {
+        long n = count.sum();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n);
+    }
+}
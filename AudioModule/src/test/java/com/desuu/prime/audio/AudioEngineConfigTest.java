@@ -0,0 +1,155 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration.ResamplingQuality;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the settings each {@code audio.engine.preset} applies and that individual keys override them.
+ */
+class AudioEngineConfigTest {
+    private static final Logger log = LoggerFactory.getLogger(AudioEngineConfigTest.class);
+    private static final int SECONDS = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void balancedIsTheDefault() {
+        assertEngine(create(new Properties()), 10, ResamplingQuality.LOW, 5000);
+    }
+
+    @Test
+    void lowCpuPreset() {
+        assertEngine(create(preset("low_cpu")), 4, ResamplingQuality.LOW, 2000);
+    }
+
+    @Test
+    void highQualityPreset() {
+        assertEngine(create(preset("high_quality")), 10, ResamplingQuality.HIGH, 5000);
+    }
+
+    @Test
+    void presetNameIgnoresCaseAndSpaces() {
+        assertEngine(create(preset(" Low_CPU ")), 4, ResamplingQuality.LOW, 2000);
+    }
+
+    @Test
+    void keysOverrideThePreset() {
+        Properties config = preset("low_cpu");
+        config.setProperty("audio.engine.opus_quality", "7");
+        config.setProperty("audio.engine.resampling_quality", "medium");
+        config.setProperty("audio.engine.frame_buffer_ms", "3000");
+        config.setProperty("audio.engine.stuck_threshold_ms", "4000");
+        config.setProperty("audio.engine.seek_ghosting", "false");
+        DefaultAudioPlayerManager manager = create(config);
+
+        assertEngine(manager, 7, ResamplingQuality.MEDIUM, 3000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(4000), manager.getTrackStuckThresholdNanos());
+        assertFalse(manager.isUsingSeekGhosting());
+    }
+
+    @Test
+    void framesAreBufferedWithoutAllocating() {
+        DefaultAudioPlayerManager manager = create(new Properties());
+        // The allocating default creates an AudioFrame for every frame the track produces
+        assertTrue(manager.getConfiguration().getFrameBufferFactory()
+                .create(5000, StandardAudioDataFormats.DISCORD_OPUS, new AtomicBoolean())
+                instanceof NonAllocatingAudioFrameBuffer);
+    }
+
+    @Test
+    void unknownPresetIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> AudioEngineConfig.createPlayerManager(preset("ultra")));
+    }
+
+    /**
+     * Resamples and encodes the same 44.1 kHz tone with each preset and logs the process CPU time
+     * it took, for comparing presets on a given machine. Only the output is checked; timings are too
+     * noisy to assert on.
+     */
+    @Test
+    void presetsEncodeTheSameTone() throws Exception {
+        Path wav = tempDir.resolve("tone.wav");
+        Files.write(wav, TestTones.sineWav(44100, SECONDS));
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        // The first run warms up the JIT and the native encoder
+        for (String preset : new String[]{"balanced", "low_cpu", "balanced", "high_quality"}) {
+            AudioPlayerManager manager = AudioEngineConfig.createPlayerManager(preset(preset));
+            manager.registerSourceManager(new LocalAudioSourceManager());
+            try {
+                AudioTrack track = (AudioTrack) manager.loadItemSync(wav.toString());
+                assertNotNull(track, "tone did not load");
+                AudioPlayer player = manager.createPlayer();
+                long cpuStart = os.getProcessCpuTime();
+                player.playTrack(track);
+                int frames = 0;
+                long deadline = System.currentTimeMillis() + 20000;
+                while (true) {
+                    assertTrue(System.currentTimeMillis() < deadline, preset + " did not finish");
+                    AudioFrame frame;
+                    try {
+                        frame = player.provide(5, TimeUnit.SECONDS);
+                    } catch (TimeoutException e) {
+                        continue; // NonAllocatingAudioFrameBuffer gives up early once woken; just ask again
+                    }
+                    if (frame == null) {
+                        break;
+                    }
+                    frames++;
+                }
+                long cpuMillis = TimeUnit.NANOSECONDS.toMillis(os.getProcessCpuTime() - cpuStart);
+                log.info("Preset {}: {} frames, {} ms CPU for {} s of audio", preset, frames, cpuMillis, SECONDS);
+                assertTrue(frames >= SECONDS * 50 - 5, preset + " produced only " + frames + " frames");
+                player.destroy();
+            } finally {
+                manager.shutdown();
+            }
+        }
+    }
+
+    private static DefaultAudioPlayerManager create(Properties config) {
+        DefaultAudioPlayerManager manager = (DefaultAudioPlayerManager) AudioEngineConfig.createPlayerManager(config);
+        manager.shutdown(); // Only its settings are looked at
+        return manager;
+    }
+
+    private static Properties preset(String name) {
+        Properties config = new Properties();
+        config.setProperty("audio.engine.preset", name);
+        return config;
+    }
+
+    private static void assertEngine(DefaultAudioPlayerManager manager, int opusQuality, ResamplingQuality resampling,
+                                     int frameBufferMillis) {
+        assertEquals(opusQuality, manager.getConfiguration().getOpusEncodingQuality());
+        assertEquals(resampling, manager.getConfiguration().getResamplingQuality());
+        assertEquals(frameBufferMillis, manager.getFrameBufferDuration());
+    }
+}
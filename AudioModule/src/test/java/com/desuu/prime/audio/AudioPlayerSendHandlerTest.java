@@ -0,0 +1,200 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link AudioPlayerSendHandler}'s in-place {@code MutableAudioFrame} path sends the
+ * same Opus frames as the previous {@code player.provide()} / {@code AudioFrame.getData()} path,
+ * from one reused buffer, and that with the engine's frame buffer it does not allocate per frame.
+ */
+class AudioPlayerSendHandlerTest {
+    private static final int SECONDS = 2;
+    private static final long TIMEOUT_MILLIS = 20000;
+    // LavaPlayer's own per-frame cost: the track marker check iterates a CopyOnWriteArrayList (24 B).
+    // Copying each frame into a new array, as the old path did, would be several times this.
+    private static final long MAX_ALLOCATED_PER_FRAME = 32;
+    // Looked up once: getThreadMXBean() allocates on every call
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @TempDir
+    Path tempDir;
+
+    private AudioPlayerManager manager;
+    private Path wav;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manager = AudioEngineConfig.createPlayerManager(new Properties());
+        manager.registerSourceManager(new LocalAudioSourceManager());
+        wav = tempDir.resolve("tone.wav");
+        Files.write(wav, TestTones.sineWav(48000, SECONDS));
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void heapBufferSendsSameFramesAsAudioFrames() throws Exception {
+        assertSameFrames(false);
+    }
+
+    @Test
+    void directBufferSendsSameFramesAsAudioFrames() throws Exception {
+        assertSameFrames(true);
+    }
+
+    @Test
+    void clipFramesGoOutBeforeThePlayer() throws Exception {
+        AudioPlayer player = manager.createPlayer();
+        AudioPlayerSendHandler handler = new AudioPlayerSendHandler(player);
+        byte[][] clip = {{1, 2, 3}, {4, 5, 6, 7}};
+        handler.playClip(clip);
+
+        for (byte[] expected : clip) {
+            assertTrue(handler.canProvide());
+            assertArrayEquals(expected, consume(handler.provide20MsAudio()));
+        }
+        // Nothing is playing, so the clip is followed by silence
+        assertFalse(handler.canProvide());
+        player.destroy();
+    }
+
+    private void assertSameFrames(boolean directBuffer) throws Exception {
+        AudioPlayer oldPlayer = manager.createPlayer();
+        List<byte[]> expected = collect(oldPlayer, () -> {
+            AudioFrame frame = oldPlayer.provide();
+            return frame == null ? null : consume(ByteBuffer.wrap(frame.getData()));
+        });
+
+        AudioPlayer player = manager.createPlayer();
+        AudioPlayerSendHandler handler = new AudioPlayerSendHandler(player, directBuffer);
+        ByteBuffer[] sent = new ByteBuffer[1];
+        List<byte[]> actual = collect(player, () -> {
+            if (!handler.canProvide()) {
+                return null;
+            }
+            ByteBuffer buffer = handler.provide20MsAudio();
+            if (sent[0] == null) {
+                sent[0] = buffer;
+            }
+            assertSame(sent[0], buffer, "every frame should be sent from the same buffer");
+            return consume(buffer);
+        });
+
+        assertTrue(expected.size() >= SECONDS * 50 - 5, "only " + expected.size() + " frames decoded");
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "frame " + i);
+        }
+        assertEquals(directBuffer, sent[0].isDirect());
+        oldPlayer.destroy();
+        player.destroy();
+    }
+
+    @Test
+    void sendPathDoesNotAllocatePerFrame() throws Exception {
+        AudioPlayer player = manager.createPlayer();
+        AudioPlayerSendHandler handler = new AudioPlayerSendHandler(player, true);
+        byte[] sink = new byte[4096];
+        long[] allocated = new long[1];
+        Supplier<byte[]> send = () -> {
+            long before = allocatedBytes();
+            if (!handler.canProvide()) {
+                allocated[0] += allocatedBytes() - before;
+                return null;
+            }
+            ByteBuffer buffer = handler.provide20MsAudio();
+            buffer.get(sink, 0, buffer.remaining());
+            allocated[0] += allocatedBytes() - before;
+            return sink;
+        };
+
+        // Warm-up: class loading and JIT compilation
+        for (int i = 0; i < 3; i++) {
+            collect(player, send);
+        }
+        allocated[0] = 0;
+        int frames = collect(player, send).size();
+
+        assertTrue(frames >= SECONDS * 50 - 5, "only " + frames + " frames decoded");
+        assertTrue(allocated[0] / frames <= MAX_ALLOCATED_PER_FRAME,
+                allocated[0] + " B allocated on the send thread for " + frames + " frames");
+        player.destroy();
+    }
+
+    /**
+     * Plays the tone on the player and reads frames with the given function until the track ends.
+     * The player is polled without blocking, the way JDA's audio thread does it.
+     */
+    private List<byte[]> collect(AudioPlayer player, Supplier<byte[]> readFrame) throws Exception {
+        AudioTrack track = (AudioTrack) manager.loadItemSync(wav.toString());
+        assertNotNull(track, "tone did not load");
+        AtomicBoolean ended = new AtomicBoolean();
+        player.addListener(new AudioEventAdapter() {
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                ended.set(true);
+            }
+        });
+        player.playTrack(track);
+
+        List<byte[]> frames = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!ended.get()) {
+            assertTrue(System.currentTimeMillis() < deadline, "track did not finish");
+            byte[] frame = readFrame.get();
+            if (frame == null) {
+                TimeUnit.MILLISECONDS.sleep(1);
+                continue;
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static long allocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Reads the frame out of the buffer the way JDA does, leaving it consumed for the next tick.
+     */
+    private static byte[] consume(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        assertFalse(buffer.hasRemaining());
+        return data;
+    }
+}
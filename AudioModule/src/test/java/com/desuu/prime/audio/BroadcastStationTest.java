@@ -0,0 +1,119 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that every subscriber of a {@link BroadcastStation} hears the same frames from its one
+ * producer, each at its own cursor.
+ */
+class BroadcastStationTest {
+    private static final int FRAMES = 50;
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    @TempDir
+    Path tempDir;
+
+    private AudioPlayerManager manager;
+    private BroadcastStation station;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manager = AudioEngineConfig.createPlayerManager(new Properties());
+        manager.registerSourceManager(new LocalAudioSourceManager());
+        Path wav = tempDir.resolve("tone.wav");
+        Files.write(wav, TestTones.sineWav(48000, 2));
+        AudioTrack track = (AudioTrack) manager.loadItemSync(wav.toString());
+        assertNotNull(track, "tone did not load");
+
+        AudioPlayer producer = manager.createPlayer();
+        station = new BroadcastStation("tone", producer, 250);
+        producer.playTrack(track);
+    }
+
+    @AfterEach
+    void tearDown() {
+        station.close();
+        manager.shutdown();
+    }
+
+    @Test
+    void twoSubscribersReadOneProducer() throws InterruptedException {
+        BroadcastSubscriber first = new BroadcastSubscriber(station, null, 0);
+        BroadcastSubscriber second = new BroadcastSubscriber(station, null, 0);
+        pumpFrames(FRAMES);
+
+        List<byte[]> heardFirst = drain(first);
+        List<byte[]> heardSecond = drain(second);
+
+        // The producer was read once per frame, not once per subscriber
+        assertEquals(FRAMES, station.getFramesProduced());
+        assertEquals(FRAMES, heardFirst.size());
+        for (int i = 0; i < FRAMES; i++) {
+            assertArrayEquals(heardFirst.get(i), heardSecond.get(i), "frame " + i);
+        }
+        assertEquals(0, station.getSkips());
+    }
+
+    @Test
+    void lateSubscriberJoinsNearTheHead() throws InterruptedException {
+        BroadcastSubscriber early = new BroadcastSubscriber(station, null, 0);
+        pumpFrames(FRAMES);
+        BroadcastSubscriber late = new BroadcastSubscriber(station, null, 3);
+
+        List<byte[]> heardEarly = drain(early);
+        List<byte[]> heardLate = drain(late);
+
+        assertEquals(3, heardLate.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(heardEarly.get(FRAMES - 3 + i), heardLate.get(i), "frame " + i);
+        }
+    }
+
+    /**
+     * Pumps the station, as the broadcast pump would, until it has produced the given number of frames.
+     */
+    private void pumpFrames(int frames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (station.getFramesProduced() < frames) {
+            assertTrue(System.currentTimeMillis() < deadline, "producer did not yield frames");
+            long before = station.getFramesProduced();
+            station.pump();
+            if (station.getFramesProduced() == before) {
+                Thread.sleep(1); // Still buffering
+            }
+        }
+    }
+
+    private static List<byte[]> drain(BroadcastSubscriber subscriber) {
+        List<byte[]> frames = new ArrayList<>();
+        while (subscriber.canProvide()) {
+            ByteBuffer frame = subscriber.provide20MsAudio();
+            byte[] copy = new byte[frame.remaining()];
+            frame.get(copy);
+            assertFalse(frame.hasRemaining());
+            frames.add(copy);
+        }
+        return frames;
+    }
+}
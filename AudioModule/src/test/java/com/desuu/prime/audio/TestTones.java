@@ -0,0 +1,30 @@
+package com.desuu.prime.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Generated audio for tests that need a real track to play.
+ */
+final class TestTones {
+    private TestTones() {
+    }
+
+    /**
+     * A 16-bit stereo PCM WAV file holding a 440 Hz tone.
+     */
+    static byte[] sineWav(int sampleRate, int seconds) {
+        int channels = 2;
+        int dataSize = sampleRate * seconds * channels * 2;
+        ByteBuffer out = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        out.put("RIFF".getBytes()).putInt(36 + dataSize).put("WAVE".getBytes());
+        out.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        out.put("data".getBytes()).putInt(dataSize);
+        for (int i = 0; i < sampleRate * seconds; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / sampleRate) * 8000);
+            out.putShort(sample).putShort(sample);
+        }
+        return out.array();
+    }
+}
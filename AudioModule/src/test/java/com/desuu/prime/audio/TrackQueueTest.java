@@ -0,0 +1,252 @@
+package com.desuu.prime.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link TrackQueue} against an {@link ArrayList} model through random operation sequences,
+ * that it stays consistent while polled and shuffled at once, and that encoded tracks are only
+ * decoded when needed while decoded ones are kept as they are.
+ */
+class TrackQueueTest {
+    private static final int TRACKS = 6;
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger decodes = new AtomicInteger();
+    private DefaultAudioPlayerManager manager;
+    private List<AudioTrack> tracks;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manager = new DefaultAudioPlayerManager() {
+            @Override
+            public DecodedTrackHolder decodeTrack(MessageInput stream) throws IOException {
+                DecodedTrackHolder holder = super.decodeTrack(stream);
+                if (holder != null) {
+                    decodes.incrementAndGet();
+                }
+                return holder;
+            }
+        };
+        manager.registerSourceManager(new LocalAudioSourceManager());
+        tracks = new ArrayList<>();
+        byte[] wav = TestTones.sineWav(8000, 1);
+        for (int i = 0; i < TRACKS; i++) {
+            Path file = tempDir.resolve("tone" + i + ".wav");
+            Files.write(file, wav);
+            AudioTrack track = (AudioTrack) manager.loadItemSync(file.toString());
+            assertNotNull(track, "tone did not load");
+            tracks.add(track);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void matchesAListThroughRandomOperations() {
+        for (long seed = 0; seed < 20; seed++) {
+            runAgainstModel(seed, 0, 2000);
+        }
+    }
+
+    @Test
+    void matchesAListWithTenThousandTracks() {
+        runAgainstModel(42, 10_000, 5000);
+    }
+
+    @Test
+    void pollingWhileShufflingTakesEveryTrackOnce() throws InterruptedException {
+        List<AudioTrack> all = clones(10_000);
+        TrackQueue queue = new TrackQueue();
+        queue.addAll(all);
+        AtomicBoolean polling = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger shuffles = new AtomicInteger();
+        Thread shuffler = new Thread(() -> {
+            Random random = new Random(7);
+            started.countDown();
+            while (polling.get()) {
+                queue.shuffle(random);
+                shuffles.incrementAndGet();
+            }
+        }, "shuffler");
+        shuffler.start();
+        started.await();
+
+        Set<AudioTrack> polled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int remaining = all.size(); remaining > 0; remaining--) {
+            assertEquals(remaining, queue.size());
+            AudioTrack track = queue.poll();
+            assertNotNull(track, "queue ran dry with " + remaining + " left");
+            assertTrue(polled.add(track), "polled a track twice");
+        }
+        polling.set(false);
+        shuffler.join();
+
+        assertNull(queue.poll());
+        assertEquals(all.size(), polled.size());
+        assertTrue(shuffles.get() > 0);
+    }
+
+    /**
+     * Applies the same random add, addAll, poll, remove, move and shuffle calls to a queue and a
+     * list, comparing sizes after every step and full contents every so often.
+     */
+    private void runAgainstModel(long seed, int initial, int operations) {
+        Random random = new Random(seed);
+        List<AudioTrack> pool = clones(initial + operations * 4);
+        TrackQueue queue = new TrackQueue();
+        List<AudioTrack> model = new ArrayList<>();
+        queue.addAll(pool.subList(0, initial));
+        model.addAll(pool.subList(0, initial));
+        int next = initial;
+
+        for (int op = 0; op < operations; op++) {
+            int size = model.size();
+            switch (random.nextInt(6)) {
+                case 0 -> {
+                    AudioTrack track = pool.get(next++);
+                    queue.add(track);
+                    model.add(track);
+                }
+                case 1 -> {
+                    int count = random.nextInt(4);
+                    List<AudioTrack> batch = pool.subList(next, next + count);
+                    next += count;
+                    queue.addAll(batch);
+                    model.addAll(batch);
+                }
+                case 2 -> assertSame(model.isEmpty() ? null : model.remove(0), queue.poll(), "poll, seed " + seed);
+                case 3 -> {
+                    if (size > 0) {
+                        int index = random.nextInt(size);
+                        assertSame(model.remove(index), queue.remove(index), "remove, seed " + seed);
+                    }
+                }
+                case 4 -> {
+                    if (size > 0) {
+                        int from = random.nextInt(size);
+                        int to = random.nextInt(size);
+                        model.add(to, model.remove(from));
+                        queue.move(from, to);
+                    }
+                }
+                default -> {
+                    // Both shuffle with the same Fisher-Yates sequence given the same seed
+                    long shuffleSeed = random.nextLong();
+                    Collections.shuffle(model, new Random(shuffleSeed));
+                    queue.shuffle(new Random(shuffleSeed));
+                }
+            }
+            assertEquals(model.size(), queue.size(), "size, seed " + seed);
+            if (op % 100 == 0 || op == operations - 1) {
+                assertSameTracks(model, queue.list(0, queue.size()), seed);
+                if (!model.isEmpty()) {
+                    int index = random.nextInt(model.size());
+                    assertSame(model.get(index), queue.get(index), "get, seed " + seed);
+                    assertSame(model.get(0), queue.peek(), "peek, seed " + seed);
+                }
+            }
+        }
+    }
+
+    private static void assertSameTracks(List<AudioTrack> expected, List<AudioTrack> actual, long seed) {
+        assertEquals(expected.size(), actual.size(), "list, seed " + seed);
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i), "position " + i + ", seed " + seed);
+        }
+    }
+
+    private List<AudioTrack> clones(int count) {
+        List<AudioTrack> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            out.add(tracks.get(i % TRACKS).makeClone());
+        }
+        return out;
+    }
+
+    @Test
+    void decodedTracksAreKeptAsTheyAre() {
+        TrackQueue queue = new TrackQueue(manager, 0);
+        queue.addAll(tracks);
+
+        for (AudioTrack track : tracks) {
+            assertSame(track, queue.poll());
+        }
+        assertEquals(0, decodes.get());
+    }
+
+    @Test
+    void encodedTracksOutsideTheWindowStayEncoded() {
+        TrackQueue queue = new TrackQueue(manager, 2);
+        queue.addAllEncoded(encoded());
+        assertEquals(2, decodes.get());
+        assertEquals(TRACKS, queue.size());
+
+        for (AudioTrack track : tracks) {
+            assertEquals(track.getIdentifier(), queue.poll().getIdentifier());
+        }
+        assertEquals(TRACKS, decodes.get());
+    }
+
+    @Test
+    void shuffleDecodesTheNewHead() {
+        TrackQueue queue = new TrackQueue(manager, 0);
+        queue.addAllEncoded(encoded());
+        assertEquals(0, decodes.get());
+
+        queue.shuffle(new Random(1));
+        assertEquals(1, decodes.get());
+        assertNotNull(queue.poll());
+        assertEquals(1, decodes.get(), "poll decoded the head");
+    }
+
+    @Test
+    void movingToTheHeadDecodesIt() {
+        TrackQueue queue = new TrackQueue(manager, 1);
+        queue.addAllEncoded(encoded());
+
+        queue.move(TRACKS - 1, 0);
+        assertEquals(2, decodes.get());
+        assertEquals(tracks.get(TRACKS - 1).getIdentifier(), queue.poll().getIdentifier());
+        assertEquals(2, decodes.get());
+    }
+
+    private List<byte[]> encoded() {
+        List<byte[]> split = TrackCodec.split(TrackCodec.encode(manager, tracks));
+        assertNotNull(split);
+        assertEquals(TRACKS, split.size());
+        return split;
+    }
+}
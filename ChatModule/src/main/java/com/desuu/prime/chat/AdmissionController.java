@@ -0,0 +1,226 @@
+package com.desuu.prime.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether an incoming chat message may be sent to the model.
+ *
+ * <p>Messages must pass per-user, per-guild and global token buckets. The global bucket is
+ * striped across several independent buckets so busy guilds do not all contend on one counter;
+ * a guild starts at its own stripe and moves on to the others when it is empty.
+ * Messages waiting behind an in-flight generation count against a global queue bound; once it
+ * is reached, further messages are shed instead of piling up.
+ */
+public class AdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    public enum Decision {
+        ADMITTED,
+        USER_LIMITED,
+        GUILD_LIMITED,
+        GLOBAL_LIMITED
+    }
+
+    private final RateLimiter[] globalStripes;
+    private final Map<Long, RateLimiter> guildLimiters = new ConcurrentHashMap<>();
+    private final Map<Long, RateLimiter> userLimiters = new ConcurrentHashMap<>();
+    private final double guildPerSecond;
+    private final int guildBurst;
+    private final double userPerSecond;
+    private final int userBurst;
+    private final int maxQueued;
+    private final int maxPendingPerChannel;
+
+    // Metrics
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder userRejections = new LongAdder();
+    private final LongAdder guildRejections = new LongAdder();
+    private final LongAdder globalRejections = new LongAdder();
+    private final LongAdder queueRejections = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    AdmissionController(Properties config) {
+        double globalPerSecond = Double.parseDouble(config.getProperty("chat.admission.global_per_second", "20"));
+        int globalBurst = Integer.parseInt(config.getProperty("chat.admission.global_burst", "40"));
+        int stripes = Integer.parseInt(config.getProperty("chat.admission.global_stripes", "8"));
+        if (stripes < 1) {
+            throw new IllegalArgumentException("chat.admission.global_stripes must be at least 1: " + stripes);
+        }
+        this.globalStripes = new RateLimiter[stripes];
+        for (int i = 0; i < stripes; i++) {
+            globalStripes[i] = new RateLimiter(globalPerSecond / stripes, Math.max(1, globalBurst / stripes));
+        }
+
+        this.guildPerSecond = Double.parseDouble(config.getProperty("chat.admission.guild_per_minute", "60")) / 60.0;
+        this.guildBurst = Integer.parseInt(config.getProperty("chat.admission.guild_burst", "10"));
+        this.userPerSecond = Double.parseDouble(config.getProperty("chat.admission.user_per_minute", "12")) / 60.0;
+        this.userBurst = Integer.parseInt(config.getProperty("chat.admission.user_burst", "4"));
+        this.maxQueued = Integer.parseInt(config.getProperty("chat.admission.max_queued", "500"));
+        this.maxPendingPerChannel = Integer.parseInt(config.getProperty("chat.admission.max_pending_per_channel", "10"));
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-admission-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes a permit from the user, guild and global buckets, or none of them if any is exhausted.
+     */
+    Decision tryAcquire(long guildId, long userId) {
+        long now = System.nanoTime();
+
+        RateLimiter user = userLimiters.computeIfAbsent(userId, id -> new RateLimiter(userPerSecond, userBurst));
+        if (!user.tryAcquire(now)) {
+            userRejections.increment();
+            return Decision.USER_LIMITED;
+        }
+
+        RateLimiter guild = guildLimiters.computeIfAbsent(guildId, id -> new RateLimiter(guildPerSecond, guildBurst));
+        if (!guild.tryAcquire(now)) {
+            user.release();
+            guildRejections.increment();
+            return Decision.GUILD_LIMITED;
+        }
+
+        // Start at the guild's home stripe and try the others in turn before giving up, so a single
+        // busy guild can still use the whole global rate while the rest of the bot is idle
+        int home = homeStripe(guildId);
+        for (int i = 0; i < globalStripes.length; i++) {
+            if (globalStripes[(home + i) % globalStripes.length].tryAcquire(now)) {
+                admitted.increment();
+                return Decision.ADMITTED;
+            }
+        }
+        user.release();
+        guild.release();
+        globalRejections.increment();
+        return Decision.GLOBAL_LIMITED;
+    }
+
+    /**
+     * Returns the permits of an admitted message that was shed afterwards (e.g. its channel's
+     * queue was full). The global permit goes back to the guild's home stripe, which is where it
+     * was taken from unless that stripe was empty at the time.
+     */
+    void release(long guildId, long userId) {
+        RateLimiter user = userLimiters.get(userId);
+        if (user != null) {
+            user.release();
+        }
+        RateLimiter guild = guildLimiters.get(guildId);
+        if (guild != null) {
+            guild.release();
+        }
+        globalStripes[homeStripe(guildId)].release();
+        admitted.decrement();
+    }
+
+    private int homeStripe(long guildId) {
+        return (int) Math.floorMod(guildId, (long) globalStripes.length);
+    }
+
+    int getMaxPendingPerChannel() {
+        return maxPendingPerChannel;
+    }
+
+    /**
+     * Reserves a slot in the global wait queue.
+     *
+     * @return false if the queue is full and the message should be shed.
+     */
+    boolean tryReserveQueueSlot() {
+        while (true) {
+            int current = queued.get();
+            if (current >= maxQueued) {
+                queueRejections.increment();
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void recordQueueRejection() {
+        queueRejections.increment();
+    }
+
+    /**
+     * Releases queue slots for messages that have left the queue and records how long the oldest waited.
+     */
+    void recordDequeued(int count, long waitNanos) {
+        queued.addAndGet(-count);
+        dequeued.add(count);
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejections(Decision reason) {
+        switch (reason) {
+            case USER_LIMITED:
+                return userRejections.sum();
+            case GUILD_LIMITED:
+                return guildRejections.sum();
+            case GLOBAL_LIMITED:
+                return globalRejections.sum();
+            default:
+                return 0;
+        }
+    }
+
+    public long getQueueRejections() {
+        return queueRejections.sum();
+    }
+
+    public long getAverageWaitMillis() {
+        long count = dequeued.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum() / count);
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("admitted=%d, queued=%d, rejected user=%d guild=%d global=%d queue=%d, wait avg=%dms max=%dms",
+                getAdmitted(), getQueueDepth(), userRejections.sum(), guildRejections.sum(), globalRejections.sum(),
+                getQueueRejections(), getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    /**
+     * Drops buckets that have fully refilled; they would be recreated identical on next use.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        userLimiters.values().removeIf(limiter -> limiter.isIdle(now));
+        guildLimiters.values().removeIf(limiter -> limiter.isIdle(now));
+        logger.debug("Chat admission: {}", this);
+    }
+}
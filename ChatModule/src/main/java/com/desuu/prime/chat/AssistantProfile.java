@@ -0,0 +1,25 @@
+package com.desuu.prime.chat;
+
+/**
+ * The assistant assigned to a channel: the personality it was joined with and its system prompt.
+ */
+class AssistantProfile {
+    // Null if the personality is not known
+    final String personality;
+    final String systemPrompt;
+    // When the channel last talked to the assistant, for the idle sweep
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+
+    AssistantProfile(String personality, String systemPrompt) {
+        this.personality = personality;
+        this.systemPrompt = systemPrompt;
+    }
+
+    void touch() {
+        lastUsedMillis = System.currentTimeMillis();
+    }
+
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+}
@@ -0,0 +1,79 @@
+package com.desuu.prime.chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The conversation window for a single channel. Holds the most recent user/model turns
+ * within a character budget, evicting the oldest turns first. The system prompt preamble
+ * is not stored here; it is pinned ahead of the window when the request is built.
+ */
+class ChannelHistory {
+    private final Deque<MessageEntry> entries = new ArrayDeque<>();
+    private final int maxChars;
+    private final AtomicLong storeChars;
+
+    private int chars = 0;
+    private boolean detached = false;
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+
+    ChannelHistory(int maxChars, AtomicLong storeChars) {
+        this.maxChars = maxChars;
+        this.storeChars = storeChars;
+    }
+
+    /**
+     * Returns a copy of the current window, oldest turn first.
+     */
+    synchronized List<MessageEntry> snapshot() {
+        touch();
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Appends a completed exchange and evicts the oldest exchanges until the window fits the budget.
+     * The newest exchange is always kept, even if it alone exceeds the budget.
+     */
+    synchronized void addTurn(MessageEntry user, MessageEntry model) {
+        touch();
+        int before = chars;
+        entries.addLast(user);
+        entries.addLast(model);
+        chars += user.size() + model.size();
+
+        // Evict whole user/model pairs so the window always starts with a user turn
+        while (chars > maxChars && entries.size() > 2) {
+            chars -= entries.removeFirst().size();
+            chars -= entries.removeFirst().size();
+        }
+
+        if (!detached) {
+            storeChars.addAndGet(chars - before);
+        }
+    }
+
+    /**
+     * Marks this history as removed from its store and releases its share of the global budget.
+     */
+    synchronized void detach() {
+        if (!detached) {
+            detached = true;
+            storeChars.addAndGet(-chars);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    private void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,124 @@
+package com.desuu.prime.chat;
+
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes generations for a single channel. At most one request is in flight at a time;
+ * messages that arrive while it runs are held and coalesced into one batched user turn
+ * for the next request, so every request sees the history left by the one before it.
+ * When an admission controller is present the waiting messages are bounded, both per lane
+ * and globally, and offers beyond those bounds are rejected.
+ */
+class ChannelLane {
+    private static final long SHED_NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    enum Offer {
+        // The lane was idle; the caller should start a generation for the message now
+        START,
+        // The message is waiting behind the generation already in flight
+        QUEUED,
+        // The queue is full and the message was dropped
+        REJECTED
+    }
+
+    private final AdmissionController admission;
+    private final List<String> pending = new ArrayList<>();
+    private MessageChannel replyChannel;
+    private boolean inFlight = false;
+    private long oldestPendingNanos;
+    private long lastShedNoticeNanos;
+    private boolean shedNoticeSent = false;
+    private long lastActivityMillis = System.currentTimeMillis();
+
+    /**
+     * @param admission Bounds the waiting messages, or null to leave them unbounded.
+     */
+    ChannelLane(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Offers a user message to the lane.
+     *
+     * @param userMessage The message as sent to the model, prefixed with the author's name.
+     */
+    synchronized Offer offer(MessageChannel channel, String userMessage) {
+        lastActivityMillis = System.currentTimeMillis();
+        if (!inFlight) {
+            inFlight = true;
+            return Offer.START;
+        }
+        if (admission != null) {
+            if (pending.size() >= admission.getMaxPendingPerChannel()) {
+                admission.recordQueueRejection();
+                return Offer.REJECTED;
+            }
+            if (!admission.tryReserveQueueSlot()) {
+                return Offer.REJECTED;
+            }
+        }
+        if (pending.isEmpty()) {
+            oldestPendingNanos = System.nanoTime();
+        }
+        pending.add(userMessage);
+        replyChannel = channel;
+        return Offer.QUEUED;
+    }
+
+    /**
+     * Whether a "busy" notice should be posted for a shed message. Notices are limited to one
+     * per interval per channel so that shedding a flood does not produce a flood of its own.
+     */
+    synchronized boolean shouldNotifyShed() {
+        long now = System.nanoTime();
+        if (shedNoticeSent && now - lastShedNoticeNanos < SHED_NOTICE_INTERVAL_NANOS) {
+            return false;
+        }
+        shedNoticeSent = true;
+        lastShedNoticeNanos = now;
+        return true;
+    }
+
+    /**
+     * Called when the in-flight generation finishes. Returns the messages that queued up
+     * meanwhile as a single batch (keeping the lane busy), or null if the lane is now idle.
+     */
+    synchronized Batch next() {
+        lastActivityMillis = System.currentTimeMillis();
+        if (pending.isEmpty()) {
+            inFlight = false;
+            replyChannel = null;
+            return null;
+        }
+        if (admission != null) {
+            admission.recordDequeued(pending.size(), System.nanoTime() - oldestPendingNanos);
+        }
+        Batch batch = new Batch(replyChannel, String.join("\n", pending), pending.size());
+        pending.clear();
+        replyChannel = null;
+        return batch;
+    }
+
+    /**
+     * Whether nothing is running or waiting and nothing has happened since the given time.
+     */
+    synchronized boolean isIdleSince(long cutoffMillis) {
+        return !inFlight && pending.isEmpty() && lastActivityMillis < cutoffMillis;
+    }
+
+    static class Batch {
+        final MessageChannel channel;
+        final String userTurn;
+        final int messageCount;
+
+        Batch(MessageChannel channel, String userTurn, int messageCount) {
+            this.channel = channel;
+            this.userTurn = userTurn;
+            this.messageCount = messageCount;
+        }
+    }
+}
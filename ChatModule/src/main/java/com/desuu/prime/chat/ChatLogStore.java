@@ -0,0 +1,407 @@
+package com.desuu.prime.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Local, append-only persistence for channel assistant assignments and conversations.
+ *
+ * <p>Each channel has a log segment ({@code <channelId>.log}) that system prompt changes and
+ * completed turns are appended to, and optionally a snapshot ({@code <channelId>.snap}) written by
+ * compaction. Once a segment grows past the compaction threshold, the channel's state is rewritten
+ * into a fresh snapshot holding only the prompt and the turns that still fit the history window,
+ * and the segment is started over. Both files are read with plain reads into heap buffers, so no
+ * mapping keeps them open while they are truncated or deleted.
+ *
+ * <p>Each segment starts with its generation number, and a snapshot records the newest generation
+ * it covers. A segment the snapshot already covers is skipped on replay and dropped before the next
+ * append, so a crash between installing a snapshot and deleting the old segment cannot replay the
+ * same turns twice.
+ *
+ * <p>Nothing is read at startup beyond the directory listing; a channel's state is restored the
+ * first time it is needed. All file access runs on a single writer thread, so reads always see
+ * every append queued before them.
+ *
+ * <p>Record layout: {@code [int length][int crc32][byte type][fields...]}, where strings are
+ * {@code [int byteLength][utf8 bytes]}. A torn or corrupt tail is dropped on read.
+ */
+class ChatLogStore {
+    private static final Logger logger = LoggerFactory.getLogger(ChatLogStore.class);
+
+    private static final byte RECORD_PROMPT = 1;
+    private static final byte RECORD_TURN = 2;
+    private static final byte RECORD_GENERATION = 3;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path directory;
+    private final long compactBytes;
+    private final int windowChars;
+    private final Set<Long> persistedChannels = ConcurrentHashMap.newKeySet();
+    // Channels whose segment was checked against their snapshot since startup; writer thread only
+    private final Set<Long> checkedSegments = new HashSet<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-log-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ChatLogStore(Path directory, long compactBytes, int windowChars) throws IOException {
+        this.directory = directory;
+        this.compactBytes = compactBytes;
+        this.windowChars = windowChars;
+        Files.createDirectories(directory);
+
+        // Only the channel IDs are read up front; contents are restored lazily
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dot = name.indexOf('.');
+                if (dot > 0 && (name.endsWith(LOG_SUFFIX) || name.endsWith(SNAPSHOT_SUFFIX))) {
+                    try {
+                        persistedChannels.add(Long.parseLong(name.substring(0, dot)));
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours
+                    }
+                }
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "chat-log-shutdown"));
+        logger.info("Chat log store at {} has {} persisted channels", directory.toAbsolutePath(), persistedChannels.size());
+    }
+
+    boolean hasChannel(long channelId) {
+        return persistedChannels.contains(channelId);
+    }
+
+    /**
+     * Records a new assistant for the channel. On replay this also clears the channel's history.
+     */
+    void appendPrompt(long channelId, AssistantProfile assistant) {
+        persistedChannels.add(channelId);
+        byte[] record = encodePrompt(assistant);
+        writer.execute(() -> append(channelId, record));
+    }
+
+    void appendTurn(long channelId, MessageEntry user, MessageEntry model) {
+        byte[] record = encodeRecord(RECORD_TURN, user.content, model.content);
+        writer.execute(() -> append(channelId, record));
+    }
+
+    /**
+     * Reads the persisted state of a channel.
+     *
+     * @return The channel's state, or null if nothing usable is persisted for it.
+     */
+    ChannelState load(long channelId) {
+        if (!hasChannel(channelId)) {
+            return null;
+        }
+        try {
+            return writer.submit(() -> read(channelId)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.error("Failed to restore chat state for channel {}", channelId, e.getCause());
+            return null;
+        }
+    }
+
+    private void append(long channelId, byte[] record) {
+        Path log = directory.resolve(channelId + LOG_SUFFIX);
+        Path snapshot = directory.resolve(channelId + SNAPSHOT_SUFFIX);
+        try {
+            if (checkedSegments.add(channelId)) {
+                dropCoveredSegment(log, snapshot);
+            }
+            long size;
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (channel.size() == 0) {
+                    // A new segment follows the one the snapshot covers
+                    write(channel, encodeGeneration(readGeneration(snapshot) + 1));
+                }
+                write(channel, record);
+                size = channel.size();
+            }
+            if (size > compactBytes) {
+                compact(channelId);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to append to chat log for channel {}", channelId, e);
+        }
+    }
+
+    /**
+     * Deletes a segment left behind by a compaction that installed its snapshot but did not get to
+     * delete the segment, so new records are not appended to a segment that replay skips.
+     */
+    private void dropCoveredSegment(Path log, Path snapshot) throws IOException {
+        if (!Files.exists(log) || !Files.exists(snapshot)) {
+            return;
+        }
+        // Segments written before generations were recorded count as generation 0
+        long segment = Math.max(0, readGeneration(log));
+        if (readGeneration(snapshot) >= segment) {
+            logger.warn("Deleting {}, which {} already covers", log, snapshot);
+            Files.delete(log);
+        }
+    }
+
+    private ChannelState read(long channelId) throws IOException {
+        ChannelState state = new ChannelState();
+        replay(directory.resolve(channelId + SNAPSHOT_SUFFIX), state, true);
+        replay(directory.resolve(channelId + LOG_SUFFIX), state, false);
+        return state.assistant != null ? state : null;
+    }
+
+    /**
+     * Replays one file into the given state, truncating any torn or corrupt tail.
+     */
+    private void replay(Path file, ChannelState state, boolean snapshot) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buffer = readFile(file);
+        long fileLength = buffer.limit();
+        state.beginFile(snapshot);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            state.apply(body);
+            buffer.position(buffer.position() + length);
+        }
+        long validLength = buffer.position();
+        if (validLength < fileLength) {
+            logger.warn("Dropping {} corrupt trailing bytes from {}", fileLength - validLength, file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    /**
+     * @return The generation a segment starts with, or that a snapshot covers; -1 if the file is
+     * missing or does not start with one.
+     */
+    private static long readGeneration(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8 + 1 + 8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+        }
+        header.flip();
+        if (header.remaining() < header.capacity() || header.getInt(0) != 1 + 8 || header.get(8) != RECORD_GENERATION) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 8, 1 + 8);
+        return (int) crc.getValue() == header.getInt(4) ? header.getLong(9) : -1;
+    }
+
+    private static ByteBuffer readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to replay");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full or the file ends
+            }
+            return buffer.flip();
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Rewrites the channel's state into a new snapshot and starts a fresh log segment.
+     */
+    private void compact(long channelId) throws IOException {
+        ChannelState state = read(channelId);
+        if (state == null) {
+            return;
+        }
+        Path snapshot = directory.resolve(channelId + SNAPSHOT_SUFFIX);
+        Path log = directory.resolve(channelId + LOG_SUFFIX);
+
+        // Keep only the newest turns that fit the history window, as the in-memory store would
+        Deque<MessageEntry> kept = new ArrayDeque<>();
+        int chars = 0;
+        for (int i = state.turns.size() - 2; i >= 0; i -= 2) {
+            MessageEntry user = state.turns.get(i);
+            MessageEntry model = state.turns.get(i + 1);
+            chars += user.size() + model.size();
+            if (chars > windowChars && !kept.isEmpty()) {
+                break;
+            }
+            kept.addFirst(model);
+            kept.addFirst(user);
+        }
+
+        Path temp = directory.resolve(channelId + SNAPSHOT_SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The snapshot covers the segment being compacted and every one before it
+            write(channel, encodeGeneration(state.segmentGeneration));
+            write(channel, encodePrompt(state.assistant));
+            while (!kept.isEmpty()) {
+                write(channel, encodeRecord(RECORD_TURN, kept.removeFirst().content, kept.removeFirst().content));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // If this is lost to a crash, replay skips the covered segment and the next append deletes it
+        Files.deleteIfExists(log);
+        logger.debug("Compacted chat log for channel {}", channelId);
+    }
+
+    private void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Chat log writer did not finish pending appends before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] encodePrompt(AssistantProfile assistant) {
+        return assistant.personality != null
+                ? encodeRecord(RECORD_PROMPT, assistant.systemPrompt, assistant.personality)
+                : encodeRecord(RECORD_PROMPT, assistant.systemPrompt);
+    }
+
+    private static byte[] encodeGeneration(long generation) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 1 + 8);
+        buffer.putInt(1 + 8);
+        buffer.putInt(0); // Checksum placeholder
+        buffer.put(RECORD_GENERATION);
+        buffer.putLong(generation);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, 1 + 8);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static byte[] encodeRecord(byte type, String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        int length = 1;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + encoded[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length);
+        buffer.putInt(0); // Checksum placeholder
+        buffer.put(type);
+        for (byte[] field : encoded) {
+            buffer.putInt(field.length);
+            buffer.put(field);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A channel's restored assistant and conversation turns, oldest first.
+     */
+    static class ChannelState {
+        AssistantProfile assistant;
+        final List<MessageEntry> turns = new ArrayList<>();
+        // Newest segment generation the snapshot covers, and the generation of the segment replayed last
+        private long coveredGeneration = -1;
+        private long segmentGeneration = 0;
+        private boolean fromSnapshot;
+        private boolean skipping;
+
+        private void beginFile(boolean snapshot) {
+            fromSnapshot = snapshot;
+            // Segments written before generations were recorded count as generation 0
+            segmentGeneration = 0;
+            skipping = !snapshot && coveredGeneration >= 0;
+        }
+
+        private void apply(ByteBuffer record) {
+            byte type = record.get();
+            if (type == RECORD_GENERATION) {
+                long generation = record.getLong();
+                if (fromSnapshot) {
+                    coveredGeneration = generation;
+                } else {
+                    segmentGeneration = generation;
+                    skipping = generation <= coveredGeneration;
+                }
+            } else if (skipping) {
+                // Left behind by an interrupted compaction; the snapshot already holds these records
+            } else if (type == RECORD_PROMPT) {
+                String systemPrompt = readString(record);
+                // The personality field is optional
+                String personality = record.hasRemaining() ? readString(record) : null;
+                assistant = new AssistantProfile(personality, systemPrompt);
+                turns.clear();
+            } else if (type == RECORD_TURN) {
+                turns.add(new MessageEntry("user", readString(record)));
+                turns.add(new MessageEntry("model", readString(record)));
+            }
+        }
+    }
+}
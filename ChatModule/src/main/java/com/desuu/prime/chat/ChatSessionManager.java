@@ -1,33 +1,106 @@
 package com.desuu.prime.chat;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ChatSessionManager {
     private static final Logger logger = LoggerFactory.getLogger(ChatSessionManager.class);
-    private static final OkHttpClient client = new OkHttpClient();
+    private static VertexTransport transport;
+    private static VertexCaller vertexCaller;
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final int DISCORD_MESSAGE_MAX_LENGTH = 2000;
+    private static final long SESSION_SWEEP_INTERVAL_SECONDS = 60;
 
     private static String vertexApiUrl;
 
-    private static final Map<Long, String> systemPrompts = new ConcurrentHashMap<>();
-    private static final Map<Long, List<MessageEntry>> histories = new ConcurrentHashMap<>();
+    // Streaming delivery: send the first message early, then edit it as the reply grows
+    private static boolean streamingEnabled = true;
+    private static int streamingFirstChunkChars = 200;
+    private static long streamingEditIntervalMillis = 1000;
+
+    private static final Map<Long, AssistantProfile> assistants = new ConcurrentHashMap<>();
+    private static HistoryStore histories;
+    private static ChatLogStore logStore;
+    private static ResponseCache responseCache;
+    private static AdmissionController admission;
+    private static final Map<Long, ChannelLane> lanes = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService sessionSweeper;
+    // Encoded preamble entries, one per distinct system prompt (i.e. per personality)
+    private static final Map<String, MessageEntry> preambles = new ConcurrentHashMap<>();
+    private static final MessageEntry PREAMBLE_ACK = new MessageEntry("model", "Understood. I will follow those instructions.");
+
+    public static void init(String projectNumber, String location, String endpointId, Properties config) {
+        streamingEnabled = Boolean.parseBoolean(config.getProperty("chat.streaming.enabled", "true"));
+        streamingFirstChunkChars = Integer.parseInt(config.getProperty("chat.streaming.first_chunk_chars", "200"));
+        streamingEditIntervalMillis = Long.parseLong(config.getProperty("chat.streaming.edit_interval_ms", "1000"));
+
+        VertexPayload.setCacheEncodedEntries(Boolean.parseBoolean(config.getProperty("chat.payload.cache_encoded_entries", "true")));
+        transport = new VertexTransport(config);
+        vertexCaller = new VertexCaller(transport.getClient(), config);
+
+        // History budgets are in characters (roughly four per token)
+        int historyMaxChars = Integer.parseInt(config.getProperty("chat.history.max_chars", "24000"));
+
+        logStore = null;
+        // Off unless asked for, since it writes users' conversations to disk
+        if (Boolean.parseBoolean(config.getProperty("chat.persistence.enabled", "false"))) {
+            try {
+                logStore = new ChatLogStore(
+                        Path.of(config.getProperty("chat.persistence.dir", "data/chat")),
+                        Long.parseLong(config.getProperty("chat.persistence.compact_bytes", "262144")),
+                        historyMaxChars
+                );
+            } catch (IOException e) {
+                logger.error("Could not open the chat log store; assistant channels will not survive a restart.", e);
+            }
+        }
+
+        admission = Boolean.parseBoolean(config.getProperty("chat.admission.enabled", "true"))
+                ? new AdmissionController(config)
+                : null;
+
+        responseCache = Boolean.parseBoolean(config.getProperty("chat.cache.enabled", "false"))
+                ? new ResponseCache(config)
+                : null;
+
+        long idleTtlMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty("chat.history.idle_ttl_minutes", "120")));
+        histories = new HistoryStore(
+                historyMaxChars,
+                idleTtlMillis,
+                Long.parseLong(config.getProperty("chat.history.global_max_chars", "20000000")),
+                logStore != null ? ChatSessionManager::loadPersistedTurns : null
+        );
+
+        // Assistants and lanes of channels idle as long as their history are dropped with it
+        if (sessionSweeper == null) {
+            sessionSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "chat-session-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sessionSweeper.scheduleWithFixedDelay(() -> sweepIdleSessions(idleTtlMillis),
+                    SESSION_SWEEP_INTERVAL_SECONDS, SESSION_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
 
-    public static void init(String projectNumber, String location, String endpointId) {
         if (projectNumber == null || projectNumber.isBlank()) {
             logger.error("FATAL: gcp.project_number is not configured. Chat functionality will be disabled.");
             vertexApiUrl = null;
@@ -50,9 +123,112 @@ public class ChatSessionManager {
         logger.info("ChatSessionManager initialized for Vertex Endpoint ID {}", endpointId);
     }
 
-    public static void setSystemPrompt(long channelId, String prompt) {
-        systemPrompts.put(channelId, prompt);
+    /**
+     * Returns connection pool and dispatcher statistics for the Vertex transport, or null before init.
+     */
+    public static VertexTransport.Stats getTransportStats() {
+        return transport != null ? transport.getStats() : null;
+    }
+
+    /**
+     * Returns the Vertex caller, which exposes retry, hedging and circuit breaker metrics; null before init.
+     */
+    public static VertexCaller getVertexCaller() {
+        return vertexCaller;
+    }
+
+    /**
+     * Returns the response cache, or null if it is disabled.
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the admission controller, or null if admission control is disabled.
+     */
+    public static AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    /**
+     * @return Whether chat is initialized and configured. When it is not, messages are ignored
+     * and no assistant can join a channel.
+     */
+    public static boolean isEnabled() {
+        return vertexApiUrl != null;
+    }
+
+    /**
+     * Assigns an assistant to the channel, starting a fresh conversation.
+     *
+     * @return false if chat is disabled; nothing is changed then.
+     */
+    public static boolean setSystemPrompt(long channelId, String personality, String prompt) {
+        if (!isEnabled()) {
+            return false;
+        }
+        AssistantProfile assistant = new AssistantProfile(personality, prompt);
+        assistants.put(channelId, assistant);
         histories.remove(channelId);
+        histories.seed(channelId, null);
+        if (logStore != null) {
+            logStore.appendPrompt(channelId, assistant);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the assistants and lanes of channels that have been idle for the history TTL. An assistant
+     * dropped this way is restored from the log store on the channel's next message, if persistence is on.
+     */
+    private static void sweepIdleSessions(long idleTtlMillis) {
+        try {
+            long cutoff = System.currentTimeMillis() - idleTtlMillis;
+            int[] removed = new int[2];
+            assistants.forEach((channelId, assistant) -> {
+                if (assistant.getLastUsedMillis() < cutoff && assistants.remove(channelId, assistant)) {
+                    removed[0]++;
+                }
+            });
+            // Under the map's lock for the channel, so a message being offered keeps its lane
+            lanes.keySet().forEach(channelId -> lanes.computeIfPresent(channelId, (id, lane) -> {
+                if (lane.isIdleSince(cutoff)) {
+                    removed[1]++;
+                    return null;
+                }
+                return lane;
+            }));
+            logger.debug("Chat sessions: {} assistants, {} lanes; dropped {} idle assistants and {} idle lanes",
+                    assistants.size(), lanes.size(), removed[0], removed[1]);
+        } catch (Exception e) {
+            logger.error("Chat session sweep failed", e);
+        }
+    }
+
+    /**
+     * Restores a channel's assistant assignment and history from the log store, if it has any.
+     *
+     * @return true if the channel has an assistant after restoring.
+     */
+    private static boolean restoreChannel(long channelId) {
+        if (logStore == null || !logStore.hasChannel(channelId)) {
+            return false;
+        }
+        ChatLogStore.ChannelState state = logStore.load(channelId);
+        if (state == null) {
+            return false;
+        }
+        if (assistants.putIfAbsent(channelId, state.assistant) == null) {
+            histories.seed(channelId, state.turns);
+            logger.info("Restored assistant for channel {} with {} persisted turns", channelId, state.turns.size() / 2);
+        }
+        return true;
+    }
+
+    private static List<MessageEntry> loadPersistedTurns(long channelId) {
+        ChatLogStore.ChannelState state = logStore.load(channelId);
+        return state != null ? state.turns : null;
     }
 
     public static void handleMessage(MessageReceivedEvent event) {
@@ -64,70 +240,136 @@ public class ChatSessionManager {
         }
 
         long channelId = event.getChannel().getIdLong();
-        String system = systemPrompts.get(channelId);
-        if (system == null) {
-            return;
+        AssistantProfile assistant = assistants.get(channelId);
+        if (assistant == null) {
+            if (!restoreChannel(channelId)) {
+                return;
+            }
+            assistant = assistants.get(channelId);
         }
-
-        String accessToken = GoogleAuthManager.getAccessToken();
-        if (accessToken == null) {
-            logger.error("Could not obtain Google Cloud access token. Check authentication configuration.");
-            event.getChannel().sendMessage("⚠️ AI authentication failed. Please check the bot's logs.").queue();
-            return;
+        if (assistant != null) {
+            assistant.touch();
         }
 
         String userMessage = event.getMessage().getContentDisplay();
         // --- UPDATED: Format the user's message to include their name ---
         String formattedUserMessage = String.format("%s: %s", event.getAuthor().getName(), userMessage);
 
-        histories.computeIfAbsent(channelId, k -> new ArrayList<>());
-        List<MessageEntry> history = histories.get(channelId);
-
-        ObjectNode payload = mapper.createObjectNode();
-        ArrayNode contentsArray = mapper.createArrayNode();
+        if (admission != null) {
+            AdmissionController.Decision decision = admission.tryAcquire(event.getGuild().getIdLong(), event.getAuthor().getIdLong());
+            if (decision != AdmissionController.Decision.ADMITTED) {
+                shed(event, lanes.computeIfAbsent(channelId, id -> new ChannelLane(admission)), decision.name());
+                return;
+            }
+        }
 
-        if (history.isEmpty() && system != null && !system.isBlank()) {
-            contentsArray.add(createContentNode("user", system));
-            contentsArray.add(createContentNode("model", "Understood. I will follow those instructions."));
+        // Only one generation runs per channel; anything arriving meanwhile is batched into the next turn.
+        // Offered under the map's lock for the channel, so the idle sweep cannot drop the lane meanwhile.
+        ChannelLane.Offer[] offer = new ChannelLane.Offer[1];
+        ChannelLane lane = lanes.compute(channelId, (id, current) -> {
+            ChannelLane target = current != null ? current : new ChannelLane(admission);
+            offer[0] = target.offer(event.getChannel(), formattedUserMessage);
+            return target;
+        });
+        switch (offer[0]) {
+            case START:
+                generate(channelId, lane, new ChannelLane.Batch(event.getChannel(), formattedUserMessage, 1));
+                break;
+            case REJECTED:
+                // The admission permits were not used; give them back
+                admission.release(event.getGuild().getIdLong(), event.getAuthor().getIdLong());
+                shed(event, lane, "QUEUE_FULL");
+                break;
+            default:
+                // Queued; it will be sent with the next batch
+                break;
         }
+    }
 
-        for (MessageEntry entry : history) {
-            contentsArray.add(createContentNode(entry.role, entry.content));
+    /**
+     * Drops a message that was not admitted, telling the channel (at most once in a while) to retry later.
+     */
+    private static void shed(MessageReceivedEvent event, ChannelLane lane, String reason) {
+        logger.debug("Shedding chat message in channel {} ({})", event.getChannel().getIdLong(), reason);
+        if (lane.shouldNotifyShed()) {
+            event.getMessage().reply("⏳ I'm a bit busy right now, please try again in a moment.").queue();
         }
-        // Use the formatted message for the current turn
-        contentsArray.add(createContentNode("user", formattedUserMessage));
+    }
 
-        ObjectNode generationConfig = mapper.createObjectNode();
-        generationConfig.put("temperature", 0.9);
-        generationConfig.put("topP", 1.0);
-        generationConfig.put("maxOutputTokens", 2048);
+    /**
+     * Sends one user turn to the model and delivers the reply. Exactly one call to
+     * {@link #completeGeneration} is made once the request has finished, whatever the outcome.
+     */
+    private static void generate(long channelId, ChannelLane lane, ChannelLane.Batch batch) {
+        MessageChannel channel = batch.channel;
+        AssistantProfile assistant = assistants.get(channelId);
+        if (assistant == null) {
+            completeGeneration(channelId, lane);
+            return;
+        }
+        String system = assistant.systemPrompt;
+
+        List<MessageEntry> history = histories.get(channelId).snapshot();
+        // Use the formatted message for the current turn; the same entry is stored in the history afterwards
+        MessageEntry userEntry = new MessageEntry("user", batch.userTurn);
+
+        // Keyed on the turn exactly as the model sees it, author names included, since the reply may address them
+        String cacheKey = responseCache != null && responseCache.isEnabledFor(assistant.personality)
+                ? responseCache.key(system, history, batch.userTurn)
+                : null;
+        String cachedReply = cacheKey != null ? responseCache.get(cacheKey) : null;
+        if (cachedReply != null) {
+            logger.debug("Serving cached reply for channel {}", channelId);
+            recordTurn(channelId, userEntry, cachedReply);
+            for (String msg : splitMessage(cachedReply)) {
+                channel.sendMessage(msg).queue();
+            }
+            completeGeneration(channelId, lane);
+            return;
+        }
 
-        ArrayNode safetySettings = mapper.createArrayNode();
-        safetySettings.add(createSafetySetting("HARM_CATEGORY_HATE_SPEECH", "BLOCK_NONE"));
-        safetySettings.add(createSafetySetting("HARM_CATEGORY_DANGEROUS_CONTENT", "BLOCK_NONE"));
-        safetySettings.add(createSafetySetting("HARM_CATEGORY_SEXUALLY_EXPLICIT", "BLOCK_NONE"));
-        safetySettings.add(createSafetySetting("HARM_CATEGORY_HARASSMENT", "BLOCK_NONE"));
+        String accessToken = GoogleAuthManager.getAccessToken();
+        if (accessToken == null) {
+            logger.error("Could not obtain Google Cloud access token. Check authentication configuration.");
+            channel.sendMessage("⚠️ AI authentication failed. Please check the bot's logs.").queue();
+            completeGeneration(channelId, lane);
+            return;
+        }
 
-        payload.set("contents", contentsArray);
-        payload.set("generationConfig", generationConfig);
-        payload.set("safetySettings", safetySettings);
+        List<MessageEntry> contents = new ArrayList<>(history.size() + 3);
+        // The system prompt preamble is pinned ahead of the window so eviction never drops it
+        if (!system.isBlank()) {
+            contents.add(preambles.computeIfAbsent(system, prompt -> new MessageEntry("user", prompt)));
+            contents.add(PREAMBLE_ACK);
+        }
+        contents.addAll(history);
+        contents.add(userEntry);
 
         Request request = new Request.Builder()
                 .url(vertexApiUrl)
                 .addHeader("Authorization", "Bearer " + accessToken)
                 .addHeader("Content-Type", "application/json")
-                .post(RequestBody.create(payload.toString(), MediaType.parse("application/json")))
+                .post(new VertexPayload(contents))
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        vertexCaller.execute(request, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 logger.error("Vertex AI request failed", e);
-                event.getChannel().sendMessage("⚠️ Error contacting AI: " + e.getMessage()).queue();
+                channel.sendMessage("⚠️ Error contacting AI: " + e.getMessage()).queue();
+                completeGeneration(channelId, lane);
             }
 
             @Override
             public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    deliverResponse(response);
+                } finally {
+                    completeGeneration(channelId, lane);
+                }
+            }
+
+            private void deliverResponse(Response response) throws IOException {
                 if (!response.isSuccessful()) {
                     String errorBody = "";
                     try (ResponseBody responseBody = response.body()) {
@@ -136,65 +378,93 @@ public class ChatSessionManager {
                         }
                     }
                     logger.warn("Vertex AI API error: HTTP {} for URL: {}. Response: {}", response.code(), response.request().url(), errorBody);
-                    event.getChannel().sendMessage("⚠️ AI API error: " + response.code() + ". Check logs for details.").queue();
+                    channel.sendMessage("⚠️ AI API error: " + response.code() + ". Check logs for details.").queue();
                     return;
                 }
 
-                try (ResponseBody responseBody = response.body()) {
-                    if (responseBody == null) return;
+                ResponseBody responseBody = response.body();
+                if (responseBody == null) return;
+
+                StreamingReply streamingReply = streamingEnabled
+                        ? new StreamingReply(channel, DISCORD_MESSAGE_MAX_LENGTH, streamingFirstChunkChars, streamingEditIntervalMillis)
+                        : null;
+                StringBuilder fullReply = new StringBuilder();
 
-                    String responseStream = responseBody.string();
-                    JsonNode root = mapper.readTree(responseStream);
-                    logger.info("Received Vertex AI stream response: {}", root.toString());
+                // The endpoint streams a JSON array of chunks; parse each one as its bytes arrive
+                try (responseBody; JsonParser parser = mapper.getFactory().createParser(responseBody.byteStream())) {
+                    if (parser.nextToken() != JsonToken.START_ARRAY) {
+                        throw new IOException("Expected a JSON array from streamGenerateContent");
+                    }
 
-                    StringBuilder fullReply = new StringBuilder();
-                    if (root.isArray()) {
-                        for (JsonNode chunk : root) {
-                            JsonNode textNode = chunk.path("candidates").path(0).path("content").path("parts").path(0).path("text");
-                            if (textNode.isTextual()) {
-                                fullReply.append(textNode.asText());
+                    int chunkCount = 0;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode chunk = mapper.readTree(parser);
+                        chunkCount++;
+                        if (chunk.has("error")) {
+                            logger.error("Vertex AI reported an error mid-stream: {}", chunk.get("error"));
+                            continue;
+                        }
+                        JsonNode textNode = chunk.path("candidates").path(0).path("content").path("parts").path(0).path("text");
+                        if (textNode.isTextual()) {
+                            String text = textNode.asText();
+                            fullReply.append(text);
+                            if (streamingReply != null) {
+                                streamingReply.append(text);
                             }
                         }
                     }
+                    logger.debug("Received {} Vertex AI stream chunks ({} chars)", chunkCount, fullReply.length());
 
                     String reply = fullReply.toString();
                     if (reply.isEmpty()) {
-                        logger.error("Failed to extract any text from Vertex AI response. Full response: {}", root.toString());
-                        event.getChannel().sendMessage("⚠️ Error: Could not parse the AI's response.").queue();
+                        logger.error("Failed to extract any text from Vertex AI response after {} chunks.", chunkCount);
+                        channel.sendMessage("⚠️ Error: Could not parse the AI's response.").queue();
                         return;
                     }
 
                     // --- UPDATED: Store the formatted user message in the history ---
-                    history.add(new MessageEntry("user", formattedUserMessage));
-                    history.add(new MessageEntry("model", reply));
+                    recordTurn(channelId, userEntry, reply);
+                    if (cacheKey != null) {
+                        responseCache.put(cacheKey, reply);
+                    }
 
-                    List<String> messages = splitMessage(reply);
-                    for (String msg : messages) {
-                        event.getChannel().sendMessage(msg).queue();
+                    if (streamingReply != null) {
+                        streamingReply.finish();
+                    } else {
+                        List<String> messages = splitMessage(reply);
+                        for (String msg : messages) {
+                            channel.sendMessage(msg).queue();
+                        }
                     }
 
                 } catch (Exception e) {
                     logger.error("Failed to parse Vertex AI response", e);
-                    event.getChannel().sendMessage("⚠️ Error parsing AI response.").queue();
+                    if (streamingReply != null && streamingReply.hasSentAnything()) {
+                        // Deliver what we have rather than leaving a half-edited message behind
+                        streamingReply.finish();
+                        channel.sendMessage("⚠️ The AI response was interrupted.").queue();
+                    } else {
+                        channel.sendMessage("⚠️ Error parsing AI response.").queue();
+                    }
                 }
             }
         });
     }
 
-    private static ObjectNode createContentNode(String role, String text) {
-        ObjectNode textPart = mapper.createObjectNode().put("text", text);
-        ArrayNode partsArray = mapper.createArrayNode().add(textPart);
-        ObjectNode contentEntry = mapper.createObjectNode();
-        contentEntry.put("role", role);
-        contentEntry.set("parts", partsArray);
-        return contentEntry;
+    private static void recordTurn(long channelId, MessageEntry userEntry, String reply) {
+        MessageEntry modelEntry = new MessageEntry("model", reply);
+        histories.addTurn(channelId, userEntry, modelEntry);
+        if (logStore != null) {
+            logStore.appendTurn(channelId, userEntry, modelEntry);
+        }
     }
 
-    private static ObjectNode createSafetySetting(String category, String threshold) {
-        ObjectNode setting = mapper.createObjectNode();
-        setting.put("category", category);
-        setting.put("threshold", threshold);
-        return setting;
+    private static void completeGeneration(long channelId, ChannelLane lane) {
+        ChannelLane.Batch batch = lane.next();
+        if (batch != null) {
+            logger.debug("Coalesced {} queued messages into one turn for channel {}", batch.messageCount, channelId);
+            generate(channelId, lane, batch);
+        }
     }
 
     /**
@@ -218,16 +488,7 @@ public class ChatSessionManager {
                 break;
             }
 
-            // Find the best place to split, looking backwards from the max length
-            int splitPos = sb.lastIndexOf("\n", DISCORD_MESSAGE_MAX_LENGTH);
-            if (splitPos == -1) {
-                splitPos = sb.lastIndexOf(" ", DISCORD_MESSAGE_MAX_LENGTH);
-            }
-            if (splitPos == -1) {
-                // No clean split point found, so we have to cut at the max length
-                splitPos = DISCORD_MESSAGE_MAX_LENGTH;
-            }
-
+            int splitPos = findSplitPosition(sb, 0, DISCORD_MESSAGE_MAX_LENGTH);
             messages.add(sb.substring(0, splitPos));
             sb.delete(0, splitPos);
 
@@ -239,13 +500,23 @@ public class ChatSessionManager {
         return messages;
     }
 
-    private static class MessageEntry {
-        final String role;
-        final String content;
-
-        MessageEntry(String role, String content) {
-            this.role = role;
-            this.content = content;
+    /**
+     * Finds the best place to split {@code text} so the piece starting at {@code start} stays within
+     * {@code maxLength} characters, preferring a newline, then a space, then a hard cut.
+     *
+     * @return The absolute index at which the piece should end.
+     */
+    static int findSplitPosition(CharSequence text, int start, int maxLength) {
+        int limit = Math.min(start + maxLength, text.length());
+        // Look backwards from the max length for a clean split point
+        for (char separator : new char[]{'\n', ' '}) {
+            for (int i = limit; i > start; i--) {
+                if (i < text.length() && text.charAt(i) == separator) {
+                    return i;
+                }
+            }
         }
+        // No clean split point found, so we have to cut at the max length
+        return limit;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package com.desuu.prime.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A consecutive-failure circuit breaker. After enough failures in a row the circuit opens and
+ * requests fail fast; once the open period has passed a single probe request is let through,
+ * and its outcome decides whether the circuit closes again or stays open for another period.
+ */
+class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtMillis = 0;
+    private boolean probeInFlight = false;
+    private long timesOpened = 0;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a request may be sent now. In the half-open state only one probe is allowed at a time.
+     */
+    synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Vertex AI circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+            probeInFlight = false;
+            timesOpened++;
+            logger.warn("Vertex AI circuit opened after {} consecutive failures", consecutiveFailures);
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+}
@@ -8,40 +8,73 @@ import org.slf4j.LoggerFactory;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class GoogleAuthManager {
     private static final Logger logger = LoggerFactory.getLogger(GoogleAuthManager.class);
-    private static GoogleAuthManager instance;
+    private static volatile GoogleAuthManager instance;
 
     private final GoogleCredentials credentials;
     private final AtomicReference<AccessToken> currentToken = new AtomicReference<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // The refresh currently in progress, shared by every caller that needs a token meanwhile
+    private final AtomicReference<CompletableFuture<AccessToken>> inFlightRefresh = new AtomicReference<>();
+    private final CompletableFuture<Void> initialRefresh;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gcp-token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long refreshSkewMillis;
+    private final long minValidityMillis;
+    private final long retryInitialMillis;
+    private final long retryMaxMillis;
+    private long retryDelayMillis;
+    // After a failed refresh, on-demand refreshes are held off until then (epoch millis, 0 = no hold)
+    private volatile long nextRefreshAllowedMillis = 0;
+
+    // Refresh metrics
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private final AtomicLong lastRefreshMillis = new AtomicLong();
+    private final AtomicLong maxRefreshMillis = new AtomicLong();
 
     /**
      * Private constructor to enforce singleton pattern.
      * @param credentials The loaded Google credentials.
+     * @param config Token refresh settings (gcp.token.*).
      */
-    private GoogleAuthManager(GoogleCredentials credentials) {
+    private GoogleAuthManager(GoogleCredentials credentials, Properties config) {
         this.credentials = credentials;
-        this.refreshToken(); // Fetch initial token
-        // Schedule token refresh 5 minutes before expiry
-        long delay = 55; // minutes
-        this.scheduler.scheduleAtFixedRate(this::refreshToken, delay, delay, TimeUnit.MINUTES);
+        this.refreshSkewMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("gcp.token.refresh_skew_seconds", "300")));
+        this.minValidityMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("gcp.token.min_validity_seconds", "60")));
+        this.retryInitialMillis = Long.parseLong(config.getProperty("gcp.token.retry_initial_ms", "1000"));
+        this.retryMaxMillis = Long.parseLong(config.getProperty("gcp.token.retry_max_ms", "60000"));
+        this.retryDelayMillis = retryInitialMillis;
+        // Fetch the initial token in the background and schedule the next refresh from its expiry.
+        // Callers that need a token before it arrives join this refresh through refreshSingleFlight.
+        this.initialRefresh = CompletableFuture.runAsync(this::scheduledRefresh, scheduler);
     }
 
     /**
      * Initializes the singleton instance of the GoogleAuthManager.
-     * This method must be called once at application startup.
+     * This method must be called once at application startup. It loads the credentials but does
+     * not wait for the first access token, which is fetched in the background.
      *
      * @param credentialsPath Optional path to a service account JSON file. If null or blank,
      *                        Application Default Credentials (ADC) will be used.
+     * @param config          Application configuration, used for the gcp.token.* refresh settings.
      * @throws IOException If loading credentials fails.
      */
-    public static synchronized void init(String credentialsPath) throws IOException {
+    public static synchronized void init(String credentialsPath, Properties config) throws IOException {
         if (instance != null) {
             logger.warn("GoogleAuthManager has already been initialized.");
             return;
@@ -65,7 +98,7 @@ public class GoogleAuthManager {
             creds = creds.createScoped(Collections.singleton("https://www.googleapis.com/auth/cloud-platform"));
         }
 
-        instance = new GoogleAuthManager(creds);
+        instance = new GoogleAuthManager(creds, config);
     }
 
     /**
@@ -78,29 +111,161 @@ public class GoogleAuthManager {
         return instance;
     }
 
+    /**
+     * Returns a future that completes once the first token refresh has finished, successfully or not.
+     */
+    public static CompletableFuture<Void> whenInitialRefreshDone() {
+        return getInstance().initialRefresh;
+    }
+
+    /**
+     * Refreshes the token on the scheduler thread, then schedules the next refresh for the
+     * token's expiry minus the configured skew, or retries with backoff if the refresh failed.
+     */
+    private void scheduledRefresh() {
+        long delayMillis;
+        AccessToken token;
+        try {
+            token = refreshSingleFlight();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error refreshing Google Cloud access token", e);
+            token = null;
+        }
+        if (token != null) {
+            retryDelayMillis = retryInitialMillis;
+            Date expiry = token.getExpirationTime();
+            delayMillis = expiry != null
+                    ? Math.max(1000, expiry.getTime() - System.currentTimeMillis() - refreshSkewMillis)
+                    : TimeUnit.MINUTES.toMillis(55);
+        } else {
+            // Full jitter keeps several instances from retrying in lockstep
+            delayMillis = ThreadLocalRandom.current().nextLong(retryDelayMillis / 2, retryDelayMillis + 1);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, retryMaxMillis);
+            nextRefreshAllowedMillis = System.currentTimeMillis() + delayMillis;
+            logger.warn("Retrying GCP access token refresh in {} ms", delayMillis);
+        }
+        scheduler.schedule(this::scheduledRefresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes the token, or waits for a refresh already in progress on another thread.
+     *
+     * @return The new token, or null if the refresh failed.
+     */
+    private AccessToken refreshSingleFlight() {
+        CompletableFuture<AccessToken> refresh = new CompletableFuture<>();
+        CompletableFuture<AccessToken> existing = inFlightRefresh.compareAndExchange(null, refresh);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            AccessToken token = refreshToken();
+            refresh.complete(token);
+            return token;
+        } finally {
+            inFlightRefresh.set(null);
+            refresh.complete(null); // No-op unless refreshToken threw unexpectedly
+        }
+    }
+
     /**
      * Refreshes the access token and stores it.
+     *
+     * @return The new token, or null if the refresh failed.
      */
-    private void refreshToken() {
+    private AccessToken refreshToken() {
+        long start = System.nanoTime();
         try {
             logger.debug("Refreshing Google Cloud access token...");
             credentials.refresh();
             AccessToken newToken = credentials.getAccessToken();
             this.currentToken.set(newToken);
+            nextRefreshAllowedMillis = 0;
+            refreshCount.incrementAndGet();
             if (newToken != null) {
                 logger.info("Fetched new GCP access token, expires at {}", newToken.getExpirationTime());
             }
+            return newToken;
         } catch (IOException e) {
+            refreshFailures.incrementAndGet();
+            // Hold off on-demand refreshes at least until the first backoff step; the scheduler
+            // extends this to its own next attempt
+            nextRefreshAllowedMillis = Math.max(nextRefreshAllowedMillis, System.currentTimeMillis() + retryInitialMillis);
             logger.error("Error refreshing Google Cloud access token", e);
+            return null;
+        } finally {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lastRefreshMillis.set(elapsedMillis);
+            maxRefreshMillis.accumulateAndGet(elapsedMillis, Math::max);
+        }
+    }
+
+    private boolean isUsable(AccessToken token) {
+        if (token == null) {
+            return false;
         }
+        Date expiry = token.getExpirationTime();
+        return expiry == null || expiry.getTime() - System.currentTimeMillis() > minValidityMillis;
+    }
+
+    private static boolean isUnexpired(AccessToken token) {
+        if (token == null) {
+            return false;
+        }
+        Date expiry = token.getExpirationTime();
+        return expiry == null || expiry.getTime() > System.currentTimeMillis();
     }
 
     /**
-     * Gets the current, valid access token string.
+     * Gets the current, valid access token string. If the cached token has expired or is about to,
+     * it is refreshed synchronously first; concurrent callers share a single refresh. While a failed
+     * refresh is backing off, no new refresh is attempted and the old token is returned if it has
+     * not expired yet.
      * @return The token string, or null if not available.
      */
     public static String getAccessToken() {
-        AccessToken token = getInstance().currentToken.get();
-        return (token != null) ? token.getTokenValue() : null;
+        GoogleAuthManager manager = getInstance();
+        AccessToken token = manager.currentToken.get();
+        if (!manager.isUsable(token)) {
+            if (System.currentTimeMillis() < manager.nextRefreshAllowedMillis) {
+                // A recent refresh failed; don't hit the token endpoint again before the backoff allows
+                return isUnexpired(token) ? token.getTokenValue() : null;
+            }
+            logger.warn("GCP access token is missing or about to expire; refreshing on demand.");
+            token = manager.refreshSingleFlight();
+            if (!manager.isUsable(token)) {
+                return null;
+            }
+        }
+        return token.getTokenValue();
+    }
+
+    /**
+     * Returns token refresh metrics.
+     */
+    public static Stats getStats() {
+        GoogleAuthManager manager = getInstance();
+        return new Stats(manager.refreshCount.get(), manager.refreshFailures.get(),
+                manager.lastRefreshMillis.get(), manager.maxRefreshMillis.get());
+    }
+
+    public static class Stats {
+        public final long refreshes;
+        public final long failures;
+        public final long lastRefreshMillis;
+        public final long maxRefreshMillis;
+
+        Stats(long refreshes, long failures, long lastRefreshMillis, long maxRefreshMillis) {
+            this.refreshes = refreshes;
+            this.failures = failures;
+            this.lastRefreshMillis = lastRefreshMillis;
+            this.maxRefreshMillis = maxRefreshMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("refreshes=%d, failures=%d, last=%dms, max=%dms",
+                    refreshes, failures, lastRefreshMillis, maxRefreshMillis);
+        }
     }
-}
\ No newline at end of file
+}
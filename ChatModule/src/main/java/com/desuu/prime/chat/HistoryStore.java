@@ -0,0 +1,160 @@
+package com.desuu.prime.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Holds the conversation windows for all channels with bounded memory.
+ * Each channel keeps a sliding window within a per-channel character budget, channels that
+ * have been idle longer than the TTL are dropped, and when the total across all channels
+ * exceeds the global cap the least recently used channels are evicted first.
+ */
+class HistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryStore.class);
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final Map<Long, ChannelHistory> histories = new ConcurrentHashMap<>();
+    private final AtomicLong totalChars = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicLong evictedChannels = new AtomicLong();
+
+    private final int maxCharsPerChannel;
+    private final long idleTtlMillis;
+    private final long globalMaxChars;
+    // Restores a channel's persisted turns when it is not in memory; may be null
+    private final Function<Long, List<MessageEntry>> loader;
+
+    HistoryStore(int maxCharsPerChannel, long idleTtlMillis, long globalMaxChars, Function<Long, List<MessageEntry>> loader) {
+        this.maxCharsPerChannel = maxCharsPerChannel;
+        this.loader = loader;
+        this.idleTtlMillis = idleTtlMillis;
+        this.globalMaxChars = globalMaxChars;
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-history-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the history for the given channel, restoring it from persistence or creating it as needed.
+     */
+    ChannelHistory get(long channelId) {
+        ChannelHistory history = histories.get(channelId);
+        if (history != null) {
+            return history;
+        }
+        return seed(channelId, loader != null ? loader.apply(channelId) : null);
+    }
+
+    /**
+     * Installs a history for the channel built from previously persisted turns, unless one already exists.
+     *
+     * @param turns Alternating user/model entries, oldest first, or null for an empty history.
+     */
+    ChannelHistory seed(long channelId, List<MessageEntry> turns) {
+        return histories.computeIfAbsent(channelId, id -> {
+            ChannelHistory history = new ChannelHistory(maxCharsPerChannel, totalChars);
+            if (turns != null) {
+                for (int i = 0; i + 1 < turns.size(); i += 2) {
+                    history.addTurn(turns.get(i), turns.get(i + 1));
+                }
+            }
+            return history;
+        });
+    }
+
+    /**
+     * Records a completed exchange for the channel and enforces the global cap.
+     */
+    void addTurn(long channelId, MessageEntry user, MessageEntry model) {
+        get(channelId).addTurn(user, model);
+        if (totalChars.get() > globalMaxChars) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    void remove(long channelId) {
+        ChannelHistory removed = histories.remove(channelId);
+        if (removed != null) {
+            removed.detach();
+        }
+    }
+
+    long getTotalChars() {
+        return totalChars.get();
+    }
+
+    int getChannelCount() {
+        return histories.size();
+    }
+
+    long getEvictedChannels() {
+        return evictedChannels.get();
+    }
+
+    private void sweep() {
+        try {
+            long cutoff = System.currentTimeMillis() - idleTtlMillis;
+            histories.forEach((channelId, history) -> {
+                if (history.getLastAccessMillis() < cutoff && histories.remove(channelId, history)) {
+                    history.detach();
+                    evictedChannels.incrementAndGet();
+                }
+            });
+            if (totalChars.get() > globalMaxChars) {
+                evictLeastRecentlyUsed();
+            }
+            logger.debug("Chat history: {} channels, {} chars, {} evicted so far",
+                    histories.size(), totalChars.get(), evictedChannels.get());
+        } catch (Exception e) {
+            logger.error("Chat history sweep failed", e);
+        }
+    }
+
+    /**
+     * Evicts the least recently used channels until the store is back under 90% of the global cap.
+     * Only one thread evicts at a time; concurrent callers simply skip.
+     */
+    private void evictLeastRecentlyUsed() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = globalMaxChars - globalMaxChars / 10;
+            // Capture access times up front so the sort sees a stable ordering
+            List<Map.Entry<Long, Long>> candidates = new ArrayList<>(histories.size());
+            histories.forEach((channelId, history) -> candidates.add(Map.entry(channelId, history.getLastAccessMillis())));
+            candidates.sort(Map.Entry.comparingByValue());
+
+            int evicted = 0;
+            for (Map.Entry<Long, Long> entry : candidates) {
+                if (totalChars.get() <= target) {
+                    break;
+                }
+                ChannelHistory removed = histories.remove(entry.getKey());
+                if (removed != null) {
+                    removed.detach();
+                    evicted++;
+                }
+            }
+            evictedChannels.addAndGet(evicted);
+            logger.info("Chat history over global cap; evicted {} least recently used channels", evicted);
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
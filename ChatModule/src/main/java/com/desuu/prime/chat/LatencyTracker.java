@@ -0,0 +1,43 @@
+package com.desuu.prime.chat;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples in a ring buffer and answers percentile queries over them.
+ */
+class LatencyTracker {
+    private final long[] samples;
+    private int next = 0;
+    private int count = 0;
+
+    LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param quantile A value between 0 and 1, e.g. 0.95.
+     * @return The latency at the given quantile in nanoseconds, or -1 if there are no samples.
+     */
+    long percentile(double quantile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,34 @@
+package com.desuu.prime.chat;
+
+/**
+ * A single turn in a channel's conversation, as sent to the model.
+ */
+class MessageEntry {
+    final String role;
+    final String content;
+    // Lazily cached JSON encoding of this entry, reused on every request while it stays in the window
+    private volatile byte[] encoded;
+
+    MessageEntry(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+
+    /**
+     * Returns this entry encoded as a Vertex content object, caching it if entry caching is enabled.
+     */
+    byte[] encoded() {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            bytes = VertexPayload.encode(role, content);
+            if (VertexPayload.isCacheEncodedEntries()) {
+                encoded = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    int size() {
+        return content.length();
+    }
+}
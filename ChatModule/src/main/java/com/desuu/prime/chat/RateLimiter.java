@@ -0,0 +1,51 @@
+package com.desuu.prime.chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as a generic cell rate algorithm over a single
+ * atomic "theoretical arrival time". Each permit pushes that time forward by one emission
+ * interval; a request is allowed while it stays within the burst tolerance of now.
+ */
+class RateLimiter {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond Sustained rate.
+     * @param burst            Number of permits that may be taken back to back from a full bucket.
+     */
+    RateLimiter(double permitsPerSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = tat == Long.MIN_VALUE || tat - nowNanos < 0 ? nowNanos : tat;
+            if (start - nowNanos > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a permit taken by {@link #tryAcquire} that ended up unused.
+     */
+    void release() {
+        theoreticalArrival.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * Whether the bucket has fully refilled, i.e. holds no state worth keeping.
+     */
+    boolean isIdle(long nowNanos) {
+        long tat = theoreticalArrival.get();
+        return tat == Long.MIN_VALUE || tat - nowNanos <= 0;
+    }
+}
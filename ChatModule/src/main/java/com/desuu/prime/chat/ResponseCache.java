@@ -0,0 +1,142 @@
+package com.desuu.prime.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches model replies for repeated short prompts, keyed by a hash of the system prompt,
+ * the most recent history entries and the normalized user turn (including the author prefix). Entries expire after a TTL
+ * and the least recently used entries are evicted once the cache is full.
+ */
+public class ResponseCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int contextEntries;
+    private final int maxPromptChars;
+    private final Set<String> disabledPersonalities;
+
+    private final LinkedHashMap<String, CachedReply> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ResponseCache(Properties config) {
+        this.maxEntries = Integer.parseInt(config.getProperty("chat.cache.max_entries", "1000"));
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty("chat.cache.ttl_minutes", "60")));
+        this.contextEntries = Integer.parseInt(config.getProperty("chat.cache.context_entries", "2"));
+        this.maxPromptChars = Integer.parseInt(config.getProperty("chat.cache.max_prompt_chars", "200"));
+        this.disabledPersonalities = new HashSet<>(Arrays.asList(config.getProperty("chat.cache.disabled_personalities", "").split("\\s*,\\s*")));
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedReply> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Whether replies for the given personality may be cached. Unknown personalities are never cached.
+     */
+    boolean isEnabledFor(String personality) {
+        return personality != null && !disabledPersonalities.contains(personality);
+    }
+
+    /**
+     * Builds the cache key for a turn, or returns null if the turn is too long to be worth caching.
+     */
+    String key(String systemPrompt, List<MessageEntry> history, String userTurn) {
+        String normalized = normalize(userTurn);
+        if (normalized.isEmpty() || normalized.length() > maxPromptChars) {
+            return null;
+        }
+
+        MessageDigest digest = sha256();
+        update(digest, systemPrompt);
+        for (int i = Math.max(0, history.size() - contextEntries); i < history.size(); i++) {
+            MessageEntry entry = history.get(i);
+            update(digest, entry.role);
+            update(digest, entry.content);
+        }
+        update(digest, normalized);
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Returns the cached reply for the key, or null on a miss or an expired entry.
+     */
+    synchronized String get(String key) {
+        CachedReply cached = entries.get(key);
+        if (cached != null && cached.expiresAtMillis > System.currentTimeMillis()) {
+            hits.increment();
+            return cached.reply;
+        }
+        if (cached != null) {
+            entries.remove(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    synchronized void put(String key, String reply) {
+        entries.put(key, new CachedReply(reply, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Lower-cases the text, collapses whitespace and drops trailing punctuation,
+     * so "Hi!", "hi" and " HI " share an entry.
+     */
+    private static String normalize(String text) {
+        String normalized = text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        int end = normalized.length();
+        while (end > 0 && ".!?~".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return normalized.substring(0, end);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0); // Separator so adjacent fields cannot run together
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class CachedReply {
+        final String reply;
+        final long expiresAtMillis;
+
+        CachedReply(String reply, long expiresAtMillis) {
+            this.reply = reply;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.desuu.prime.chat;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers a model reply to a Discord channel while it is still being generated.
+ * The first message is sent as soon as enough text (or a complete sentence) has arrived,
+ * and is then edited in place as more text streams in. Once a message would exceed the
+ * Discord character limit it is finalized and the remainder continues in a new message.
+ */
+class StreamingReply {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingReply.class);
+
+    private final MessageChannel channel;
+    private final int maxLength;
+    private final int firstChunkChars;
+    private final long editIntervalNanos;
+
+    private final StringBuilder text = new StringBuilder();
+    // Number of characters already finalized in earlier messages
+    private int committed = 0;
+    // The message currently being edited, or null if the next flush should send a new one
+    private CompletableFuture<Message> current = null;
+    private String currentContent = null;
+    private long lastEditNanos = 0;
+
+    StreamingReply(MessageChannel channel, int maxLength, int firstChunkChars, long editIntervalMillis) {
+        this.channel = channel;
+        this.maxLength = maxLength;
+        this.firstChunkChars = firstChunkChars;
+        this.editIntervalNanos = TimeUnit.MILLISECONDS.toNanos(editIntervalMillis);
+    }
+
+    /**
+     * Appends a piece of generated text, sending or editing a message if it is time to do so.
+     */
+    synchronized void append(String chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        text.append(chunk);
+        if (current == null && committed == 0 && !readyForFirstMessage()) {
+            return;
+        }
+        flush(false);
+    }
+
+    /**
+     * Flushes all remaining text to the channel.
+     *
+     * @return The complete reply text received so far.
+     */
+    synchronized String finish() {
+        flush(true);
+        if (current != null) {
+            watch(current);
+        }
+        return text.toString();
+    }
+
+    synchronized boolean hasSentAnything() {
+        return current != null || committed > 0;
+    }
+
+    private boolean readyForFirstMessage() {
+        if (text.length() >= firstChunkChars) {
+            return true;
+        }
+        // A sentence only counts as complete once the character after its terminator has arrived
+        for (int i = 0; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '!' || c == '?' || c == '\n') && Character.isWhitespace(text.charAt(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flush(boolean force) {
+        // Finalize full-length messages first, then show whatever is left in the current one
+        while (text.length() - committed > maxLength) {
+            int splitPos = ChatSessionManager.findSplitPosition(text, committed, maxLength);
+            publish(text.substring(committed, splitPos), true);
+            watch(current);
+            current = null;
+            currentContent = null;
+
+            committed = splitPos;
+            while (committed < text.length() && Character.isWhitespace(text.charAt(committed))) {
+                committed++;
+            }
+        }
+
+        String pending = text.substring(committed);
+        if (pending.isBlank()) {
+            return;
+        }
+        publish(pending, force);
+    }
+
+    private void publish(String content, boolean force) {
+        long now = System.nanoTime();
+        if (current == null) {
+            current = channel.sendMessage(content).submit();
+        } else if (content.equals(currentContent)) {
+            return;
+        } else if (force || now - lastEditNanos >= editIntervalNanos) {
+            // Chain edits so they are applied in order once the original message exists
+            current = current.thenCompose(message -> message.editMessage(content).submit());
+        } else {
+            return;
+        }
+        currentContent = content;
+        lastEditNanos = now;
+    }
+
+    private static void watch(CompletableFuture<Message> future) {
+        future.whenComplete((message, error) -> {
+            if (error != null) {
+                logger.warn("Failed to deliver streamed AI reply to Discord", error);
+            }
+        });
+    }
+}
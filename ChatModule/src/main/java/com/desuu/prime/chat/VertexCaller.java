@@ -0,0 +1,258 @@
+package com.desuu.prime.chat;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends Vertex AI requests with retries, a circuit breaker and optional hedging.
+ *
+ * <p>Transport failures and 429/5xx responses are retried with jittered exponential backoff,
+ * honouring {@code Retry-After} when the server sends one. Consecutive failures open a circuit
+ * breaker so that calls fail fast while the endpoint is down. With hedging enabled, a second
+ * copy of the request is sent if the first has not responded within the recent p95 latency;
+ * whichever responds first is delivered and the other is cancelled.
+ *
+ * <p>Only the response headers are raced. Once a response has been handed to the caller its
+ * body is streamed as usual and is never retried.
+ */
+public class VertexCaller {
+    private static final Logger logger = LoggerFactory.getLogger(VertexCaller.class);
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final OkHttpClient client;
+    private final CircuitBreaker breaker;
+    private final LatencyTracker latency = new LatencyTracker(256);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vertex-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean hedgingEnabled;
+    private final long minHedgeDelayMillis;
+
+    // Metrics
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    VertexCaller(OkHttpClient client, Properties config) {
+        this.client = client;
+        this.breaker = new CircuitBreaker(
+                Integer.parseInt(config.getProperty("vertex.circuit.failure_threshold", "5")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("vertex.circuit.open_seconds", "30")))
+        );
+        this.maxAttempts = Math.max(1, Integer.parseInt(config.getProperty("vertex.retry.max_attempts", "3")));
+        this.initialBackoffMillis = Long.parseLong(config.getProperty("vertex.retry.initial_backoff_ms", "500"));
+        this.maxBackoffMillis = Long.parseLong(config.getProperty("vertex.retry.max_backoff_ms", "8000"));
+        this.hedgingEnabled = Boolean.parseBoolean(config.getProperty("vertex.hedge.enabled", "false"));
+        this.minHedgeDelayMillis = Long.parseLong(config.getProperty("vertex.hedge.min_delay_ms", "500"));
+    }
+
+    /**
+     * Sends the request. The callback receives exactly one outcome: the first acceptable response,
+     * the last retryable error response once retries are exhausted, or a failure.
+     */
+    void execute(Request request, Callback callback) {
+        if (!breaker.allowRequest()) {
+            shortCircuited.increment();
+            callback.onFailure(client.newCall(request), new IOException("Vertex AI is unavailable (circuit open), try again shortly"));
+            return;
+        }
+        new Execution(request, callback).start();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    public long getCircuitOpenings() {
+        return breaker.getTimesOpened();
+    }
+
+    /**
+     * Returns the recent p95 time to response headers in milliseconds, or -1 without samples.
+     */
+    public long getP95Millis() {
+        long p95 = latency.percentile(0.95);
+        return p95 < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(p95);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("circuit=%s (opened %d), retries=%d, hedges=%d (won %d), short-circuited=%d, p95=%dms",
+                breaker.getState(), getCircuitOpenings(), getRetries(), getHedges(), getHedgeWins(),
+                getShortCircuited(), getP95Millis());
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * One logical request, possibly spanning several attempts and a hedge.
+     */
+    private class Execution {
+        private final Request request;
+        private final Callback callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+        private volatile int attempt = 0;
+
+        Execution(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void start() {
+            launch(false);
+            if (hedgingEnabled && latency.size() >= MIN_HEDGE_SAMPLES) {
+                long delayMillis = Math.max(minHedgeDelayMillis, TimeUnit.NANOSECONDS.toMillis(latency.percentile(0.95)));
+                scheduler.schedule(() -> {
+                    if (!done.get() && outstanding.get() > 0) {
+                        hedges.increment();
+                        launch(true);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void launch(boolean hedge) {
+            Call call = client.newCall(request);
+            calls.add(call);
+            outstanding.incrementAndGet();
+            long startNanos = System.nanoTime();
+
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    calls.remove(call);
+                    if (done.get()) {
+                        return; // A cancelled loser, or an attempt that lost the race
+                    }
+                    breaker.recordFailure();
+                    if (outstanding.decrementAndGet() > 0) {
+                        return; // Another attempt is still running
+                    }
+                    retryOrFail(call, e, null);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    calls.remove(call);
+                    if (isRetryable(response.code())) {
+                        breaker.recordFailure();
+                        if (done.get() || outstanding.decrementAndGet() > 0) {
+                            response.close();
+                            return;
+                        }
+                        retryOrFail(call, null, response);
+                        return;
+                    }
+
+                    breaker.recordSuccess();
+                    if (!done.compareAndSet(false, true)) {
+                        response.close();
+                        return;
+                    }
+                    latency.record(System.nanoTime() - startNanos);
+                    if (hedge) {
+                        hedgeWins.increment();
+                    }
+                    for (Call other : calls) {
+                        other.cancel();
+                    }
+                    callback.onResponse(call, response);
+                }
+            });
+        }
+
+        private void retryOrFail(Call call, IOException error, Response response) {
+            if (attempt + 1 < maxAttempts && breaker.allowRequest()) {
+                long delayMillis = retryDelayMillis(response);
+                if (response != null) {
+                    logger.warn("Vertex AI returned HTTP {}; retrying in {} ms", response.code(), delayMillis);
+                    response.close();
+                } else {
+                    logger.warn("Vertex AI request failed ({}); retrying in {} ms", error.getMessage(), delayMillis);
+                }
+                attempt++;
+                retries.increment();
+                scheduler.schedule(() -> launch(false), delayMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            if (!done.compareAndSet(false, true)) {
+                if (response != null) {
+                    response.close();
+                }
+                return;
+            }
+            try {
+                if (response != null) {
+                    callback.onResponse(call, response);
+                } else {
+                    callback.onFailure(call, error);
+                }
+            } catch (IOException e) {
+                logger.error("Error delivering Vertex AI response", e);
+            }
+        }
+
+        /**
+         * Uses the server's Retry-After if present, otherwise jittered exponential backoff.
+         */
+        private long retryDelayMillis(Response response) {
+            if (response != null) {
+                String retryAfter = response.header("Retry-After");
+                if (retryAfter != null) {
+                    try {
+                        return Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), maxBackoffMillis);
+                    } catch (NumberFormatException e) {
+                        Date date = response.headers().getDate("Retry-After");
+                        if (date != null) {
+                            return Math.max(0, Math.min(date.getTime() - System.currentTimeMillis(), maxBackoffMillis));
+                        }
+                    }
+                }
+            }
+            long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 20));
+            return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        }
+    }
+}
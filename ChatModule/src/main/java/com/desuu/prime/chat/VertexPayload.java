@@ -0,0 +1,160 @@
+package com.desuu.prime.chat;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Request body for a generateContent call, written straight to the OkHttp sink.
+ * The constant generationConfig/safetySettings fragment is serialized once, and conversation
+ * entries are written from their cached JSON encoding when entry caching is enabled,
+ * so building a request allocates little beyond the newest user turn.
+ */
+class VertexPayload extends RequestBody {
+    private static final MediaType JSON = MediaType.get("application/json");
+    // Characters outside the BMP (emoji) are written as UTF-8, like ObjectMapper's tree serialization,
+    // rather than as escaped surrogate pairs
+    private static final JsonFactory factory = JsonFactory.builder()
+            .enable(JsonWriteFeature.COMBINE_UNICODE_SURROGATES_IN_UTF8)
+            .build();
+
+    private static final byte[] CONTENTS_START = "{\"contents\":[".getBytes(StandardCharsets.UTF_8);
+    // Closes the contents array and appends the constant request settings and the closing brace
+    private static final byte[] SETTINGS_TAIL = encodeSettingsTail();
+
+    private static volatile boolean cacheEncodedEntries = true;
+
+    private final List<MessageEntry> contents;
+
+    VertexPayload(List<MessageEntry> contents) {
+        this.contents = contents;
+    }
+
+    /**
+     * Controls whether history entries keep their encoded JSON alongside the text.
+     * Caching trades roughly one extra copy of the history in memory for not re-encoding it every turn.
+     */
+    static void setCacheEncodedEntries(boolean enabled) {
+        cacheEncodedEntries = enabled;
+    }
+
+    static boolean isCacheEncodedEntries() {
+        return cacheEncodedEntries;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        if (!cacheEncodedEntries) {
+            return -1;
+        }
+        long length = CONTENTS_START.length + SETTINGS_TAIL.length + Math.max(0, contents.size() - 1);
+        for (MessageEntry entry : contents) {
+            length += entry.encoded().length;
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(CONTENTS_START);
+        if (cacheEncodedEntries) {
+            for (int i = 0; i < contents.size(); i++) {
+                if (i > 0) {
+                    sink.writeByte(',');
+                }
+                sink.write(contents.get(i).encoded());
+            }
+        } else {
+            // Each entry is a root-level value to the generator, so a comma root separator yields array elements
+            try (JsonGenerator gen = createGenerator(sink.outputStream())) {
+                gen.setRootValueSeparator(new SerializedString(","));
+                for (MessageEntry entry : contents) {
+                    writeContent(gen, entry.role, entry.content);
+                }
+            }
+        }
+        sink.write(SETTINGS_TAIL);
+    }
+
+    /**
+     * Encodes a single {@code {"role":...,"parts":[{"text":...}]}} content entry.
+     */
+    static byte[] encode(String role, String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() + 48);
+        try (JsonGenerator gen = createGenerator(out)) {
+            writeContent(gen, role, text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeContent(JsonGenerator gen, String role, String text) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("role", role);
+        gen.writeArrayFieldStart("parts");
+        gen.writeStartObject();
+        gen.writeStringField("text", text);
+        gen.writeEndObject();
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator gen = factory.createGenerator(out);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return gen;
+    }
+
+    private static byte[] encodeSettingsTail() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(']');
+        try (JsonGenerator gen = createGenerator(out)) {
+            gen.writeStartObject();
+
+            gen.writeObjectFieldStart("generationConfig");
+            gen.writeNumberField("temperature", 0.9);
+            gen.writeNumberField("topP", 1.0);
+            gen.writeNumberField("maxOutputTokens", 2048);
+            gen.writeEndObject();
+
+            gen.writeArrayFieldStart("safetySettings");
+            writeSafetySetting(gen, "HARM_CATEGORY_HATE_SPEECH", "BLOCK_NONE");
+            writeSafetySetting(gen, "HARM_CATEGORY_DANGEROUS_CONTENT", "BLOCK_NONE");
+            writeSafetySetting(gen, "HARM_CATEGORY_SEXUALLY_EXPLICIT", "BLOCK_NONE");
+            writeSafetySetting(gen, "HARM_CATEGORY_HARASSMENT", "BLOCK_NONE");
+            gen.writeEndArray();
+
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Turn the standalone settings object into a continuation of the outer payload
+        byte[] tail = out.toByteArray();
+        tail[1] = ',';
+        return tail;
+    }
+
+    private static void writeSafetySetting(JsonGenerator gen, String category, String threshold) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("category", category);
+        gen.writeStringField("threshold", threshold);
+        gen.writeEndObject();
+    }
+}
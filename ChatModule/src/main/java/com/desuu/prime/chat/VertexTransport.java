@@ -0,0 +1,157 @@
+package com.desuu.prime.chat;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shared HTTP transport used for all Vertex AI calls.
+ * Dispatcher concurrency, connection pooling, protocols and timeouts are read from
+ * config.properties, and pool/dispatcher statistics are exposed so it can be sized for load.
+ */
+public class VertexTransport {
+    private static final Logger logger = LoggerFactory.getLogger(VertexTransport.class);
+
+    private final OkHttpClient client;
+    private final Dispatcher dispatcher;
+    private final ConnectionPool connectionPool;
+
+    public VertexTransport(Properties config) {
+        dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.parseInt(config.getProperty("vertex.http.max_requests", "128")));
+        dispatcher.setMaxRequestsPerHost(Integer.parseInt(config.getProperty("vertex.http.max_requests_per_host", "64")));
+
+        connectionPool = new ConnectionPool(
+                Integer.parseInt(config.getProperty("vertex.http.pool.max_idle", "16")),
+                Long.parseLong(config.getProperty("vertex.http.pool.keep_alive_seconds", "300")),
+                TimeUnit.SECONDS
+        );
+
+        // HTTP/2 multiplexes concurrent generations over a handful of connections
+        boolean http2 = Boolean.parseBoolean(config.getProperty("vertex.http.http2", "true"));
+        List<Protocol> protocols = http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool)
+                .protocols(protocols)
+                .connectTimeout(Long.parseLong(config.getProperty("vertex.http.connect_timeout_ms", "10000")), TimeUnit.MILLISECONDS)
+                .writeTimeout(Long.parseLong(config.getProperty("vertex.http.write_timeout_ms", "30000")), TimeUnit.MILLISECONDS)
+                // The read timeout applies between bytes, so it only needs to cover the gap between streamed chunks
+                .readTimeout(Long.parseLong(config.getProperty("vertex.http.read_timeout_ms", "60000")), TimeUnit.MILLISECONDS)
+                .callTimeout(Long.parseLong(config.getProperty("vertex.http.call_timeout_ms", "300000")), TimeUnit.MILLISECONDS);
+
+        if (Boolean.parseBoolean(config.getProperty("vertex.http.gzip_requests", "false"))) {
+            builder.addInterceptor(new GzipRequestInterceptor());
+        }
+        client = builder.build();
+
+        long statsInterval = Long.parseLong(config.getProperty("vertex.http.stats_log_interval_seconds", "0"));
+        if (statsInterval > 0) {
+            ScheduledExecutorService statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vertex-transport-stats");
+                t.setDaemon(true);
+                return t;
+            });
+            statsLogger.scheduleAtFixedRate(() -> logger.info("Vertex transport: {}", getStats()),
+                    statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+
+        logger.info("Vertex transport configured: protocols={}, maxRequests={}, maxRequestsPerHost={}",
+                protocols, dispatcher.getMaxRequests(), dispatcher.getMaxRequestsPerHost());
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns a point-in-time view of the connection pool and dispatcher queues.
+     */
+    public Stats getStats() {
+        return new Stats(
+                connectionPool.connectionCount(),
+                connectionPool.idleConnectionCount(),
+                dispatcher.runningCallsCount(),
+                dispatcher.queuedCallsCount()
+        );
+    }
+
+    public static class Stats {
+        public final int connections;
+        public final int idleConnections;
+        public final int runningCalls;
+        public final int queuedCalls;
+
+        Stats(int connections, int idleConnections, int runningCalls, int queuedCalls) {
+            this.connections = connections;
+            this.idleConnections = idleConnections;
+            this.runningCalls = runningCalls;
+            this.queuedCalls = queuedCalls;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("connections=%d (idle %d), running=%d, queued=%d",
+                    connections, idleConnections, runningCalls, queuedCalls);
+        }
+    }
+
+    /**
+     * Compresses request bodies with gzip. Chat payloads carry the whole history window,
+     * so they compress well.
+     */
+    private static class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request original = chain.request();
+            RequestBody body = original.body();
+            if (body == null || original.header("Content-Encoding") != null) {
+                return chain.proceed(original);
+            }
+            Request compressed = original.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(original.method(), gzip(body))
+                    .build();
+            return chain.proceed(compressed);
+        }
+
+        private static RequestBody gzip(RequestBody body) {
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return body.contentType();
+                }
+
+                @Override
+                public long contentLength() {
+                    return -1; // Unknown until compressed
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+                        body.writeTo(gzipSink);
+                    }
+                }
+            };
+        }
+    }
+}
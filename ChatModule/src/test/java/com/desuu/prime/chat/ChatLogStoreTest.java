@@ -0,0 +1,112 @@
+package com.desuu.prime.chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link ChatLogStore} restores what was appended, including after compaction and
+ * after a crash part way through it.
+ */
+class ChatLogStoreTest {
+    private static final long CHANNEL = 42L;
+    private static final long NO_COMPACTION = Long.MAX_VALUE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresPromptAndTurns() throws IOException {
+        ChatLogStore store = new ChatLogStore(dir, NO_COMPACTION, 10_000);
+        store.appendPrompt(CHANNEL, new AssistantProfile("cheerful", "Be nice."));
+        appendTurns(store, 0, 3);
+        store.load(CHANNEL); // Waits for the writes
+
+        ChatLogStore.ChannelState state = new ChatLogStore(dir, NO_COMPACTION, 10_000).load(CHANNEL);
+        assertNotNull(state);
+        assertEquals("Be nice.", state.assistant.systemPrompt);
+        assertEquals("cheerful", state.assistant.personality);
+        assertTurns(state.turns, 0, 3);
+    }
+
+    @Test
+    void compactionKeepsOnlyTheWindow() throws IOException {
+        // Every append compacts; each turn is 10 characters, so the window holds the last two
+        ChatLogStore store = new ChatLogStore(dir, 1, 20);
+        store.appendPrompt(CHANNEL, new AssistantProfile(null, "Be nice."));
+        appendTurns(store, 0, 5);
+
+        ChatLogStore.ChannelState state = store.load(CHANNEL);
+        assertEquals("Be nice.", state.assistant.systemPrompt);
+        assertTurns(state.turns, 3, 5);
+        assertFalse(Files.exists(dir.resolve(CHANNEL + ".log")));
+    }
+
+    @Test
+    void segmentLeftBehindByCompactionIsNotReplayedTwice() throws IOException {
+        ChatLogStore store = new ChatLogStore(dir, NO_COMPACTION, 10_000);
+        store.appendPrompt(CHANNEL, new AssistantProfile(null, "Be nice."));
+        appendTurns(store, 0, 3);
+        store.load(CHANNEL); // Waits for the writes
+        Path log = dir.resolve(CHANNEL + ".log");
+        Path saved = dir.resolve("saved");
+        Files.copy(log, saved);
+
+        // Compacts the segment into a snapshot, then puts the segment back as if the delete never happened
+        ChatLogStore compacting = new ChatLogStore(dir, 1, 10_000);
+        appendTurns(compacting, 3, 4);
+        compacting.load(CHANNEL);
+        Files.move(saved, log, StandardCopyOption.REPLACE_EXISTING);
+
+        ChatLogStore restarted = new ChatLogStore(dir, NO_COMPACTION, 10_000);
+        assertTurns(restarted.load(CHANNEL).turns, 0, 4);
+        // New turns must not land in the segment the snapshot already covers
+        appendTurns(restarted, 4, 5);
+        restarted.load(CHANNEL);
+        assertTurns(new ChatLogStore(dir, NO_COMPACTION, 10_000).load(CHANNEL).turns, 0, 5);
+    }
+
+    @Test
+    void tornTailIsDropped() throws IOException {
+        ChatLogStore store = new ChatLogStore(dir, NO_COMPACTION, 10_000);
+        store.appendPrompt(CHANNEL, new AssistantProfile(null, "Be nice."));
+        appendTurns(store, 0, 2);
+        store.load(CHANNEL);
+        Path log = dir.resolve(CHANNEL + ".log");
+        long intact = Files.size(log);
+        Files.write(log, new byte[]{0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+
+        ChatLogStore restarted = new ChatLogStore(dir, NO_COMPACTION, 10_000);
+        assertTurns(restarted.load(CHANNEL).turns, 0, 2);
+        assertEquals(intact, Files.size(log));
+        appendTurns(restarted, 2, 3);
+        assertTurns(restarted.load(CHANNEL).turns, 0, 3);
+    }
+
+    private static void appendTurns(ChatLogStore store, int from, int to) {
+        for (int i = from; i < to; i++) {
+            store.appendTurn(CHANNEL, new MessageEntry("user", "ask " + i), new MessageEntry("model", "ans " + i));
+        }
+    }
+
+    private static void assertTurns(List<MessageEntry> turns, int from, int to) {
+        assertEquals((to - from) * 2, turns.size(), "turns " + turns.size());
+        for (int i = from; i < to; i++) {
+            int at = (i - from) * 2;
+            assertEquals("ask " + i, turns.get(at).content);
+            assertEquals("ans " + i, turns.get(at + 1).content);
+            assertTrue(turns.get(at).role.equals("user") && turns.get(at + 1).role.equals("model"));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.desuu.prime.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link VertexPayload} writes exactly the bytes the previous Jackson tree
+ * serialization produced, and that the cached path allocates less than building the tree.
+ */
+class VertexPayloadTest {
+    private static final Logger logger = LoggerFactory.getLogger(VertexPayloadTest.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // Looked up once: getThreadMXBean() allocates on every call
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @AfterEach
+    void restoreDefault() {
+        VertexPayload.setCacheEncodedEntries(true);
+    }
+
+    @Test
+    void cachedEntriesMatchTreeSerialization() throws IOException {
+        VertexPayload.setCacheEncodedEntries(true);
+        List<MessageEntry> contents = sampleContents();
+        assertArrayEquals(treePayload(contents), write(new VertexPayload(contents)));
+        // Second write goes through the cached encodings
+        assertArrayEquals(treePayload(contents), write(new VertexPayload(contents)));
+    }
+
+    @Test
+    void streamedEntriesMatchTreeSerialization() throws IOException {
+        VertexPayload.setCacheEncodedEntries(false);
+        List<MessageEntry> contents = sampleContents();
+        assertArrayEquals(treePayload(contents), write(new VertexPayload(contents)));
+    }
+
+    @Test
+    void singleEntryMatchesTreeSerialization() throws IOException {
+        List<MessageEntry> contents = List.of(new MessageEntry("user", "hi"));
+        assertArrayEquals(treePayload(contents), write(new VertexPayload(contents)));
+    }
+
+    @Test
+    void contentLengthMatchesWrittenBytes() throws IOException {
+        VertexPayload payload = new VertexPayload(sampleContents());
+        assertEquals(payload.contentLength(), write(payload).length);
+    }
+
+    @Test
+    void cachedPathAllocatesLessThanTree() throws IOException {
+        List<MessageEntry> contents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            contents.add(new MessageEntry(i % 2 == 0 ? "user" : "model", "Turn " + i + ": " + "lorem ipsum ".repeat(20)));
+        }
+        // Warm up both paths and fill the entry caches
+        for (int i = 0; i < 200; i++) {
+            write(new VertexPayload(contents));
+            treePayload(contents);
+        }
+
+        int rounds = 200;
+        long start = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            write(new VertexPayload(contents));
+        }
+        long payloadBytes = allocatedBytes() - start;
+
+        start = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            treePayload(contents);
+        }
+        long treeBytes = allocatedBytes() - start;
+
+        logger.info("Allocated per request: VertexPayload {} B, Jackson tree {} B", payloadBytes / rounds, treeBytes / rounds);
+        assertTrue(payloadBytes * 2 < treeBytes,
+                "VertexPayload allocated " + payloadBytes + " B, tree " + treeBytes + " B");
+    }
+
+    private static List<MessageEntry> sampleContents() {
+        List<MessageEntry> contents = new ArrayList<>();
+        contents.add(new MessageEntry("user", "You are a helpful assistant.\nAnswer \"briefly\"."));
+        contents.add(new MessageEntry("model", "Understood. I will follow those instructions."));
+        contents.add(new MessageEntry("user", "alice: tabs\tand back\\slashes, control \u0001 chars"));
+        contents.add(new MessageEntry("model", "Unicode: café, 日本語, emoji 🎉, </script>"));
+        contents.add(new MessageEntry("user", ""));
+        return contents;
+    }
+
+    private static byte[] write(VertexPayload payload) throws IOException {
+        Buffer buffer = new Buffer();
+        payload.writeTo(buffer);
+        return buffer.readByteArray();
+    }
+
+    private static long allocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * The request body as ChatSessionManager built it before VertexPayload: an ObjectNode tree
+     * serialized with toString().
+     */
+    private static byte[] treePayload(List<MessageEntry> contents) {
+        ObjectNode payload = mapper.createObjectNode();
+        ArrayNode contentsArray = mapper.createArrayNode();
+        for (MessageEntry entry : contents) {
+            contentsArray.add(createContentNode(entry.role, entry.content));
+        }
+
+        ObjectNode generationConfig = mapper.createObjectNode();
+        generationConfig.put("temperature", 0.9);
+        generationConfig.put("topP", 1.0);
+        generationConfig.put("maxOutputTokens", 2048);
+
+        ArrayNode safetySettings = mapper.createArrayNode();
+        safetySettings.add(createSafetySetting("HARM_CATEGORY_HATE_SPEECH", "BLOCK_NONE"));
+        safetySettings.add(createSafetySetting("HARM_CATEGORY_DANGEROUS_CONTENT", "BLOCK_NONE"));
+        safetySettings.add(createSafetySetting("HARM_CATEGORY_SEXUALLY_EXPLICIT", "BLOCK_NONE"));
+        safetySettings.add(createSafetySetting("HARM_CATEGORY_HARASSMENT", "BLOCK_NONE"));
+
+        payload.set("contents", contentsArray);
+        payload.set("generationConfig", generationConfig);
+        payload.set("safetySettings", safetySettings);
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ObjectNode createContentNode(String role, String text) {
+        ObjectNode textPart = mapper.createObjectNode().put("text", text);
+        ArrayNode partsArray = mapper.createArrayNode().add(textPart);
+        ObjectNode contentEntry = mapper.createObjectNode();
+        contentEntry.put("role", role);
+        contentEntry.set("parts", partsArray);
+        return contentEntry;
+    }
+
+    private static ObjectNode createSafetySetting(String category, String threshold) {
+        ObjectNode setting = mapper.createObjectNode();
+        setting.put("category", category);
+        setting.put("threshold", threshold);
+        return setting;
+    }
+}
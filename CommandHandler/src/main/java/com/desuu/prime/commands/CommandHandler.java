@@ -1,132 +1,126 @@
 package com.desuu.prime.commands;
 
 import com.desuu.prime.chat.ChatSessionManager;
+import com.desuu.prime.commands.admin.AdminCommands;
+import com.desuu.prime.commands.audio.AudioCommands;
+import com.desuu.prime.commands.chat.ChatCommands;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import net.dv8tion.jda.api.interactions.commands.OptionType;
-import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * CommandHandler listens for all Discord interactions, registers slash commands on startup,
  * and delegates command handling to the appropriate services.
+ * Commands and messages are handled on an {@link EventDispatcher} rather than on JDA's event thread.
  */
 public class CommandHandler extends ListenerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(CommandHandler.class);
+    // Messages kept back while services start; beyond this they are dropped
+    private static final int MAX_HELD_MESSAGES = 1000;
 
     private final Properties config;
-    private final Map<String, String> personalities;
+    private final EventDispatcher dispatcher;
+    private final CommandRegistry registry;
+    private volatile CompletableFuture<?> servicesReady = CompletableFuture.completedFuture(null);
+    private final List<MessageReceivedEvent> heldMessages = new ArrayList<>(); // Guarded by itself
+    private boolean holdingMessages = false; // Guarded by heldMessages
 
     public CommandHandler(Properties config, Map<String, String> personalities) {
         this.config = config;
-        this.personalities = personalities;
+        this.dispatcher = new EventDispatcher(config);
+
+        String hashFile = config.getProperty("commands.registry.hash_file", "data/commands.sha256");
+        this.registry = new CommandRegistry(hashFile.isBlank() ? null : Path.of(hashFile));
+        registry.registerAll(ChatCommands.create(config, personalities));
+        registry.registerAll(AdminCommands.create(config, dispatcher));
+        // Music commands stay unregistered unless the audio module is enabled
+        if (Boolean.parseBoolean(config.getProperty("audio.enabled", "false"))) {
+            registry.registerAll(AudioCommands.create(config));
+        }
+    }
+
+    /**
+     * Returns the dispatcher that runs command and message handling, for its metrics.
+     */
+    public EventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public CommandRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Holds back command and message handling until the given future completes. Slash commands
+     * used meanwhile are answered with a "still starting" notice; messages are kept in arrival
+     * order and handed to the dispatcher once it completes. Nothing waits on a thread for it.
+     */
+    public void setServicesReady(CompletableFuture<?> servicesReady) {
+        synchronized (heldMessages) {
+            holdingMessages = true;
+        }
+        this.servicesReady = servicesReady;
+        servicesReady.whenComplete((result, error) -> releaseHeldMessages());
+    }
+
+    private void releaseHeldMessages() {
+        synchronized (heldMessages) {
+            holdingMessages = false;
+            heldMessages.forEach(this::dispatchMessage);
+            heldMessages.clear();
+        }
     }
 
     @Override
     public void onReady(ReadyEvent event) {
-        // Register all slash commands globally on startup
-        event.getJDA().updateCommands().addCommands(
-                // Chat Commands
-                Commands.slash("join-assistant", "Invite desuu to this channel for chat")
-                        .addOption(OptionType.STRING, "personality", "Assistant personality", false)
-                // Music Commands
-//                Commands.slash("play", "Play a track")
-//                        .addOption(OptionType.STRING, "query", "Track name or URL", true),
-//                Commands.slash("skip", "Skip the current track"),
-//                Commands.slash("pause", "Pause playback"),
-//                Commands.slash("resume", "Resume playback"),
-//                Commands.slash("shuffle", "Shuffle the queue"),
-//                Commands.slash("join", "Join your voice channel"),
-//                Commands.slash("leave", "Leave the voice channel")
-        ).queue();
+        // Global commands are shared by all shards, so only shard 0 registers them
+        if (event.getJDA().getShardInfo().getShardId() != 0) {
+            return;
+        }
+        // Register all slash commands globally on startup, if they changed since the last registration
+        registry.sync(event.getJDA(), Boolean.parseBoolean(config.getProperty("commands.registry.force_sync", "false")));
     }
 
     @Override
     public void onSlashCommandInteraction(SlashCommandInteractionEvent event) {
-        String command = event.getName();
         Guild guild = event.getGuild();
         if (guild == null) {
             event.reply("This command can only be used in a server.").setEphemeral(true).queue();
             return;
         }
-
-        switch (command) {
-            // Chat Commands
-            case "join-assistant": {
-                String persona = Optional.ofNullable(event.getOption("personality"))
-                        .map(o -> o.getAsString())
-                        .orElse(config.getProperty("default_personality", "helpful"));
-                String prompt = personalities.getOrDefault(persona, personalities.get("helpful"));
-                ChatSessionManager.setSystemPrompt(event.getChannel().getIdLong(), prompt);
-                event.reply("Assistant joined with personality \"" + persona + "\"").setEphemeral(true).queue();
-                break;
-            }
-
-            // Music Commands (Handlers commented out for safety)
-            /*
-            case "play": {
-                event.deferReply().queue(); // Defer reply as loading can take time
-                if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
-                    event.getHook().sendMessage("You need to be in a voice channel to play music.").setEphemeral(true).queue();
-                    return;
-                }
-                VoiceChannel memberChannel = member.getVoiceState().getChannel().asVoiceChannel();
-                String query = event.getOption("query").getAsString();
-                musicManager.loadAndPlay(event.getHook(), query, memberChannel);
-                break;
-            }
-            case "skip": {
-                if (!isBotInVoiceWithMember(event, audioManager, member)) break;
-                musicManager.skip();
-                event.reply("Skipped the current track.").queue();
-                break;
-            }
-            case "pause": {
-                if (!isBotInVoiceWithMember(event, audioManager, member)) break;
-                musicManager.pause();
-                event.reply("Playback paused.").queue();
-                break;
-            }
-            case "resume": {
-                if (!isBotInVoiceWithMember(event, audioManager, member)) break;
-                musicManager.resume();
-                event.reply("Playback resumed.").queue();
-                break;
-            }
-            case "shuffle": {
-                if (!isBotInVoiceWithMember(event, audioManager, member)) break;
-                musicManager.shuffle();
-                event.reply("Shuffled the queue.").queue();
-                break;
-            }
-            case "join": {
-                if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
-                    event.reply("You need to join a voice channel first!").setEphemeral(true).queue();
-                    break;
-                }
-                VoiceChannel memberChannel = member.getVoiceState().getChannel().asVoiceChannel();
-                musicManager.connectToVoice(memberChannel);
-                event.reply("Joined voice channel: " + memberChannel.getName()).queue();
-                break;
-            }
-            case "leave": {
-                if (!audioManager.isConnected()) {
-                    event.reply("I'm not in a voice channel.").setEphemeral(true).queue();
-                    break;
-                }
-                audioManager.closeAudioConnection();
-                event.reply("Left the voice channel.").queue();
-                break;
+        SlashCommand command = registry.get(event.getName());
+        if (command == null) {
+            event.reply("Unknown or disabled command: " + event.getName()).setEphemeral(true).queue();
+            return;
+        }
+        if (!servicesReady.isDone()) {
+            event.reply("I'm still starting up, please try again in a moment.").setEphemeral(true).queue();
+            return;
+        }
+        // Acknowledge right away; the handler may wait behind other work in the guild's lane for
+        // longer than the 3 seconds Discord allows, and replies through the hook
+        event.deferReply(command.isEphemeral()).queue();
+        if (!dispatcher.submit(guild.getIdLong(), () -> {
+            try {
+                command.execute(event);
+            } catch (RuntimeException e) {
+                // Don't leave the deferred reply "thinking" forever
+                event.getHook().sendMessage("Something went wrong while running this command.").queue();
+                throw e;
             }
-            */
-            default:
-                // This will now catch any lingering music commands and inform the user.
-                event.reply("Unknown or disabled command: " + command).setEphemeral(true).queue();
+        })) {
+            event.getHook().sendMessage("⏳ I'm a bit busy right now, please try again in a moment.").queue();
         }
     }
 
@@ -135,26 +129,26 @@ public class CommandHandler extends ListenerAdapter {
         if (event.getAuthor().isBot()) {
             return;
         }
-        // Delegate message handling to the ChatSessionManager
-        ChatSessionManager.handleMessage(event);
+        synchronized (heldMessages) {
+            if (holdingMessages) {
+                if (heldMessages.size() < MAX_HELD_MESSAGES) {
+                    heldMessages.add(event);
+                } else {
+                    logger.debug("Dropping message {} in channel {}: still starting", event.getMessageIdLong(),
+                            event.getChannel().getIdLong());
+                }
+                return;
+            }
+        }
+        dispatchMessage(event);
     }
 
-    // isBotInVoiceWithMember is no longer needed since music commands are disabled.
-    /*
-    private boolean isBotInVoiceWithMember(SlashCommandInteractionEvent event, AudioManager audioManager, Member member) {
-        if (!audioManager.isConnected()) {
-            event.reply("I'm not currently in a voice channel.").setEphemeral(true).queue();
-            return false;
-        }
-        if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
-            event.reply("You must be in a voice channel to use this command.").setEphemeral(true).queue();
-            return false;
-        }
-        if (member.getVoiceState().getChannel() != audioManager.getConnectedChannel()) {
-            event.reply("You must be in the same voice channel as me to use this command.").setEphemeral(true).queue();
-            return false;
+    private void dispatchMessage(MessageReceivedEvent event) {
+        // Delegate message handling to the ChatSessionManager
+        long key = event.isFromGuild() ? event.getGuild().getIdLong() : event.getChannel().getIdLong();
+        if (!dispatcher.submit(key, () -> ChatSessionManager.handleMessage(event))) {
+            logger.debug("Dropping message {} in channel {}: dispatch queue is full", event.getMessageIdLong(),
+                    event.getChannel().getIdLong());
         }
-        return true;
     }
-    */
-}
\ No newline at end of file
+}
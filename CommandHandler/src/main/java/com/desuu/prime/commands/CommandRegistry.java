@@ -0,0 +1,146 @@
+package com.desuu.prime.commands;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the bot's slash commands by name, for dispatch and for registration with Discord.
+ *
+ * <p>Registering global commands is slow and rate limited, so {@link #sync} only uploads the
+ * definitions when they changed. A SHA-256 hash of the last uploaded set is kept in a local
+ * file and compared on every ready event.
+ */
+public class CommandRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(CommandRegistry.class);
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private final Map<String, SlashCommand> commands = new ConcurrentHashMap<>();
+    private final Path hashFile;
+
+    /**
+     * @param hashFile Where the hash of the last registered definitions is kept, or null to
+     *                 upload on every sync.
+     */
+    public CommandRegistry(Path hashFile) {
+        this.hashFile = hashFile;
+    }
+
+    /**
+     * Adds a command. Command names must be unique.
+     */
+    public CommandRegistry register(SlashCommand command) {
+        String name = command.getData().getName();
+        if (commands.putIfAbsent(name, command) != null) {
+            throw new IllegalArgumentException("Duplicate slash command: " + name);
+        }
+        return this;
+    }
+
+    public CommandRegistry registerAll(Collection<SlashCommand> commands) {
+        commands.forEach(this::register);
+        return this;
+    }
+
+    /**
+     * @return The command with the given name, or null if there is none.
+     */
+    public SlashCommand get(String name) {
+        return commands.get(name);
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Uploads the command definitions as the bot's global commands, unless the same set was
+     * already uploaded last time.
+     *
+     * @param force Upload even if the stored hash matches.
+     */
+    public void sync(JDA jda, boolean force) {
+        List<SlashCommandData> definitions = new ArrayList<>();
+        commands.values().forEach(command -> definitions.add(command.getData()));
+        String hash = hash(definitions);
+        if (!force && hash.equals(readStoredHash())) {
+            logger.info("Slash commands unchanged ({} commands), skipping registration", definitions.size());
+            return;
+        }
+        jda.updateCommands().addCommands(definitions).queue(
+                registered -> {
+                    logger.info("Registered {} slash commands", registered.size());
+                    storeHash(hash);
+                },
+                error -> logger.error("Failed to register slash commands", error)
+        );
+    }
+
+    /**
+     * Hashes the definitions in a canonical form: commands sorted by name, JSON keys sorted.
+     */
+    static String hash(List<SlashCommandData> definitions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            definitions.stream()
+                    .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                    .forEach(data -> {
+                        try {
+                            Object json = mapper.readValue(data.toData().toJson(), Object.class);
+                            digest.update(mapper.writeValueAsBytes(json));
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Could not serialize command " + data.getName(), e);
+                        }
+                    });
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private String readStoredHash() {
+        if (hashFile == null || !Files.exists(hashFile)) {
+            return null;
+        }
+        try {
+            return Files.readString(hashFile, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            logger.warn("Could not read slash command hash from {}", hashFile, e);
+            return null;
+        }
+    }
+
+    private void storeHash(String hash) {
+        if (hashFile == null) {
+            return;
+        }
+        try {
+            Path parent = hashFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = hashFile.resolveSibling(hashFile.getFileName() + ".tmp");
+            Files.writeString(tmp, hash, StandardCharsets.UTF_8);
+            Files.move(tmp, hashFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not store slash command hash in {}", hashFile, e);
+        }
+    }
+}
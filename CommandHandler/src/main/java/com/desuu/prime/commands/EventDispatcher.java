@@ -0,0 +1,195 @@
+package com.desuu.prime.commands;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves event handling off JDA's event thread. Work is queued on a per-guild lane and lanes are
+ * drained by a shared worker pool, so events of one guild run in arrival order while different
+ * guilds run in parallel. The event thread only enqueues and returns.
+ *
+ * <p>The number of queued and running tasks is bounded globally and per guild; beyond that,
+ * {@link #submit} refuses the task and the caller decides how to shed it.
+ */
+public class EventDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(EventDispatcher.class);
+    // Tasks a lane runs before yielding its worker to other guilds
+    private static final int LANE_BATCH = 16;
+
+    private static final class Lane {
+        final long key;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+
+        Lane(long key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Task {
+        final Runnable work;
+        final long enqueuedNanos = System.nanoTime();
+
+        Task(Runnable work) {
+            this.work = work;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final int maxInFlight;
+    private final int maxPendingPerLane;
+
+    // Metrics
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalQueueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    EventDispatcher(Properties config) {
+        int threads = Integer.parseInt(config.getProperty("commands.dispatch.threads",
+                String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors()))));
+        this.maxInFlight = Integer.parseInt(config.getProperty("commands.dispatch.max_in_flight", "1000"));
+        this.maxPendingPerLane = Integer.parseInt(config.getProperty("commands.dispatch.max_pending_per_guild", "50"));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "command-dispatch-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues work on the lane for the given key (a guild ID, or a channel ID outside guilds).
+     *
+     * @return false if the global or per-lane limit was reached; the work was not queued.
+     */
+    public boolean submit(long key, Runnable work) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        boolean[] queued = new boolean[1];
+        boolean[] schedule = new boolean[1];
+        Lane lane = lanes.compute(key, (k, current) -> {
+            if (current == null) {
+                current = new Lane(k);
+                schedule[0] = true; // A lane in the map is either new or already being drained
+            }
+            if (current.tasks.size() < maxPendingPerLane) {
+                current.tasks.add(new Task(work));
+                queued[0] = true;
+            }
+            return current.tasks.isEmpty() ? null : current;
+        });
+        if (!queued[0]) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        submitted.increment();
+        if (schedule[0]) {
+            workers.execute(() -> drain(lane));
+        }
+        return true;
+    }
+
+    private void drain(Lane lane) {
+        for (int i = 0; i < LANE_BATCH; i++) {
+            Task task = next(lane);
+            if (task == null) {
+                return; // Lane is empty and has been removed
+            }
+            run(task);
+        }
+        workers.execute(() -> drain(lane));
+    }
+
+    /**
+     * Takes the lane's next task, removing the lane once it is empty. Done under the map's lock for
+     * the key so a concurrent {@link #submit} either sees the lane being drained or starts a new one.
+     */
+    private Task next(Lane lane) {
+        Task[] next = new Task[1];
+        lanes.computeIfPresent(lane.key, (k, current) -> {
+            next[0] = current.tasks.poll();
+            return current.tasks.isEmpty() && next[0] == null ? null : current;
+        });
+        return next[0];
+    }
+
+    private void run(Task task) {
+        long waited = System.nanoTime() - task.enqueuedNanos;
+        totalQueueNanos.add(waited);
+        maxQueueNanos.accumulateAndGet(waited, Math::max);
+        try {
+            task.work.run();
+        } catch (Throwable e) {
+            // Errors are caught too: one escaping drain() would leave the lane in the map, and every
+            // later event for the guild would queue behind it forever
+            failed.increment();
+            logger.error("Error handling event", e);
+        } finally {
+            completed.increment();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getActiveLanes() {
+        return lanes.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return The mean time tasks spent queued before running, in milliseconds.
+     */
+    public double getAverageQueueMillis() {
+        long count = getCompleted();
+        return count == 0 ? 0 : totalQueueNanos.sum() / 1e6 / count;
+    }
+
+    public long getMaxQueueMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("in flight=%d, lanes=%d, submitted=%d, rejected=%d, failed=%d, queue avg=%.1fms, max=%dms",
+                getInFlight(), getActiveLanes(), getSubmitted(), getRejected(), getFailed(),
+                getAverageQueueMillis(), getMaxQueueMillis());
+    }
+}
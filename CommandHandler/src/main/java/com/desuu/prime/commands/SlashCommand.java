@@ -0,0 +1,56 @@
+package com.desuu.prime.commands;
+
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+
+import java.util.function.Consumer;
+
+/**
+ * A slash command: its definition as registered with Discord and the handler that runs it.
+ * Handlers run on the {@link EventDispatcher}, never on JDA's event thread, and only for
+ * interactions in a guild. The interaction has already been deferred when the handler runs, so
+ * it answers through {@code event.getHook()}.
+ */
+public interface SlashCommand {
+
+    SlashCommandData getData();
+
+    void execute(SlashCommandInteractionEvent event);
+
+    /**
+     * Whether the reply is only shown to the user who ran the command. Decided when the
+     * interaction is deferred, so it applies to everything the handler sends.
+     */
+    default boolean isEphemeral() {
+        return false;
+    }
+
+    /**
+     * Creates a command with a public reply from its definition and a handler.
+     */
+    static SlashCommand of(SlashCommandData data, Consumer<SlashCommandInteractionEvent> handler) {
+        return of(data, false, handler);
+    }
+
+    /**
+     * Creates a command from its definition, whether its reply is ephemeral, and a handler.
+     */
+    static SlashCommand of(SlashCommandData data, boolean ephemeral, Consumer<SlashCommandInteractionEvent> handler) {
+        return new SlashCommand() {
+            @Override
+            public SlashCommandData getData() {
+                return data;
+            }
+
+            @Override
+            public boolean isEphemeral() {
+                return ephemeral;
+            }
+
+            @Override
+            public void execute(SlashCommandInteractionEvent event) {
+                handler.accept(event);
+            }
+        };
+    }
+}
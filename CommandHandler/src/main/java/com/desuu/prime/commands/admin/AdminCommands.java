@@ -0,0 +1,87 @@
+package com.desuu.prime.commands.admin;
+
+import com.desuu.prime.audio.AudioPipelineMetrics;
+import com.desuu.prime.audio.GuildMusicManager;
+import com.desuu.prime.audio.TrackResolutionCache;
+import com.desuu.prime.chat.AdmissionController;
+import com.desuu.prime.chat.ChatSessionManager;
+import com.desuu.prime.chat.GoogleAuthManager;
+import com.desuu.prime.chat.VertexCaller;
+import com.desuu.prime.chat.VertexTransport;
+import com.desuu.prime.commands.EventDispatcher;
+import com.desuu.prime.commands.SlashCommand;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.DefaultMemberPermissions;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Slash commands for server administrators. {@code /stats} reports the metrics the chat, audio
+ * and command modules record, so they can be read without a metrics backend.
+ */
+public final class AdminCommands {
+
+    private AdminCommands() {
+    }
+
+    public static List<SlashCommand> create(Properties config, EventDispatcher dispatcher) {
+        boolean audio = Boolean.parseBoolean(config.getProperty("audio.enabled", "false"));
+        return List.of(
+                SlashCommand.of(
+                        Commands.slash("stats", "Show the bot's performance counters")
+                                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(Permission.ADMINISTRATOR)),
+                        true,
+                        event -> stats(event, dispatcher, audio))
+        );
+    }
+
+    private static void stats(SlashCommandInteractionEvent event, EventDispatcher dispatcher, boolean audio) {
+        event.getHook().sendMessage("```\n" + report(dispatcher, audio, event.getGuild().getIdLong()) + "```").queue();
+    }
+
+    /**
+     * Builds the report: dispatcher, chat and audio metrics, one line each. Parts that are
+     * disabled are left out. Send path health is only shown for the given guild.
+     */
+    static String report(EventDispatcher dispatcher, boolean audio, long guildId) {
+        StringBuilder out = new StringBuilder();
+        line(out, "Dispatcher", dispatcher);
+
+        if (ChatSessionManager.isEnabled()) {
+            AdmissionController admission = ChatSessionManager.getAdmissionController();
+            VertexCaller caller = ChatSessionManager.getVertexCaller();
+            VertexTransport.Stats transport = ChatSessionManager.getTransportStats();
+            if (admission != null) {
+                line(out, "Chat admission", admission);
+            }
+            if (caller != null) {
+                line(out, "Vertex calls", caller);
+            }
+            if (transport != null) {
+                line(out, "Vertex transport", transport);
+            }
+            line(out, "Auth tokens", GoogleAuthManager.getStats());
+        } else {
+            line(out, "Chat", "disabled");
+        }
+
+        if (audio) {
+            line(out, "Music managers", String.format("live=%d, created=%d, evicted idle=%d, evicted for cap=%d",
+                    GuildMusicManager.getLiveCount(), GuildMusicManager.getCreatedCount(),
+                    GuildMusicManager.getEvictedIdleCount(), GuildMusicManager.getEvictedForCapCount()));
+            line(out, "Transitions", GuildMusicManager.getTransitionMetrics());
+            AudioPipelineMetrics pipeline = GuildMusicManager.getPipelineMetrics().get(guildId);
+            line(out, "Send path (this server)", pipeline != null ? pipeline : "not playing");
+            TrackResolutionCache cache = GuildMusicManager.getResolutionCache();
+            line(out, "Resolve cache", cache != null ? cache : "disabled");
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String label, Object value) {
+        out.append(label).append(": ").append(value).append('\n');
+    }
+}
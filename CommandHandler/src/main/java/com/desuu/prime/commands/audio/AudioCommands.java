@@ -0,0 +1,145 @@
+package com.desuu.prime.commands.audio;
+
+import com.desuu.prime.audio.BroadcastManager;
+import com.desuu.prime.audio.GuildMusicManager;
+import com.desuu.prime.commands.SlashCommand;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.channel.concrete.VoiceChannel;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.managers.AudioManager;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Slash commands of the music player. The audio engine is initialized by the first command
+ * that needs it rather than at startup.
+ */
+public final class AudioCommands {
+    private final Properties config;
+
+    private AudioCommands(Properties config) {
+        this.config = config;
+    }
+
+    public static List<SlashCommand> create(Properties config) {
+        AudioCommands commands = new AudioCommands(config);
+        return List.of(
+                SlashCommand.of(Commands.slash("play", "Play a track")
+                        .addOption(OptionType.STRING, "query", "Track name or URL", true), commands::play),
+                SlashCommand.of(Commands.slash("skip", "Skip the current track"), commands::skip),
+                SlashCommand.of(Commands.slash("pause", "Pause playback"), commands::pause),
+                SlashCommand.of(Commands.slash("resume", "Resume playback"), commands::resume),
+                SlashCommand.of(Commands.slash("shuffle", "Shuffle the queue"), commands::shuffle),
+                SlashCommand.of(Commands.slash("join", "Join your voice channel"), commands::join),
+                SlashCommand.of(Commands.slash("leave", "Leave the voice channel"), commands::leave),
+                SlashCommand.of(Commands.slash("broadcast", "Listen to a stream shared with other servers")
+                        .addOption(OptionType.STRING, "query", "Stream name or URL", true), commands::broadcast),
+                SlashCommand.of(Commands.slash("broadcast-stop", "Stop listening to the broadcast"), commands::broadcastStop)
+        );
+    }
+
+    private void play(SlashCommandInteractionEvent event) {
+        Member member = event.getMember();
+        if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
+            event.getHook().sendMessage("You need to be in a voice channel to play music.").queue();
+            return;
+        }
+        VoiceChannel memberChannel = member.getVoiceState().getChannel().asVoiceChannel();
+        String query = event.getOption("query").getAsString();
+        music(event.getGuild()).loadAndPlay(event.getHook(), query, memberChannel);
+    }
+
+    private void skip(SlashCommandInteractionEvent event) {
+        if (!isBotInVoiceWithMember(event)) return;
+        music(event.getGuild()).skip();
+        event.getHook().sendMessage("Skipped the current track.").queue();
+    }
+
+    private void pause(SlashCommandInteractionEvent event) {
+        if (!isBotInVoiceWithMember(event)) return;
+        music(event.getGuild()).pause();
+        event.getHook().sendMessage("Playback paused.").queue();
+    }
+
+    private void resume(SlashCommandInteractionEvent event) {
+        if (!isBotInVoiceWithMember(event)) return;
+        music(event.getGuild()).resume();
+        event.getHook().sendMessage("Playback resumed.").queue();
+    }
+
+    private void shuffle(SlashCommandInteractionEvent event) {
+        if (!isBotInVoiceWithMember(event)) return;
+        music(event.getGuild()).shuffle();
+        event.getHook().sendMessage("Shuffled the queue.").queue();
+    }
+
+    private void join(SlashCommandInteractionEvent event) {
+        Member member = event.getMember();
+        if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
+            event.getHook().sendMessage("You need to join a voice channel first!").queue();
+            return;
+        }
+        VoiceChannel memberChannel = member.getVoiceState().getChannel().asVoiceChannel();
+        music(event.getGuild()).connectToVoice(memberChannel);
+        event.getHook().sendMessage("Joined voice channel: " + memberChannel.getName()).queue();
+    }
+
+    private void leave(SlashCommandInteractionEvent event) {
+        AudioManager audioManager = event.getGuild().getAudioManager();
+        if (!audioManager.isConnected()) {
+            event.getHook().sendMessage("I'm not in a voice channel.").queue();
+            return;
+        }
+        BroadcastManager.unsubscribe(event.getGuild());
+        audioManager.closeAudioConnection();
+        event.getHook().sendMessage("Left the voice channel.").queue();
+    }
+
+    private void broadcast(SlashCommandInteractionEvent event) {
+        Member member = event.getMember();
+        if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
+            event.getHook().sendMessage("You need to be in a voice channel to listen to a broadcast.").queue();
+            return;
+        }
+        VoiceChannel memberChannel = member.getVoiceState().getChannel().asVoiceChannel();
+        String query = event.getOption("query").getAsString();
+        GuildMusicManager.ensureInitialized(config);
+        BroadcastManager.subscribe(event.getHook(), query, memberChannel);
+    }
+
+    private void broadcastStop(SlashCommandInteractionEvent event) {
+        if (!BroadcastManager.unsubscribe(event.getGuild())) {
+            event.getHook().sendMessage("This server isn't listening to a broadcast.").queue();
+            return;
+        }
+        event.getHook().sendMessage("Stopped listening to the broadcast.").queue();
+    }
+
+    private GuildMusicManager music(Guild guild) {
+        GuildMusicManager.ensureInitialized(config);
+        return GuildMusicManager.get(guild);
+    }
+
+    private boolean isBotInVoiceWithMember(SlashCommandInteractionEvent event) {
+        Guild guild = event.getGuild();
+        AudioManager audioManager = guild.getAudioManager();
+        Member member = event.getMember();
+        if (!audioManager.isConnected()) {
+            event.getHook().sendMessage("I'm not currently in a voice channel.").queue();
+            return false;
+        }
+        if (member == null || member.getVoiceState() == null || !member.getVoiceState().inAudioChannel()) {
+            event.getHook().sendMessage("You must be in a voice channel to use this command.").queue();
+            return false;
+        }
+        if (!member.getVoiceState().getChannel().equals(audioManager.getConnectedChannel())) {
+            event.getHook().sendMessage("You must be in the same voice channel as me to use this command.").queue();
+            return false;
+        }
+        return true;
+    }
+}
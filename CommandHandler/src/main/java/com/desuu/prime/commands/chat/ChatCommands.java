@@ -0,0 +1,44 @@
+package com.desuu.prime.commands.chat;
+
+import com.desuu.prime.chat.ChatSessionManager;
+import com.desuu.prime.commands.SlashCommand;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Slash commands of the chat assistant.
+ */
+public final class ChatCommands {
+
+    private ChatCommands() {
+    }
+
+    public static List<SlashCommand> create(Properties config, Map<String, String> personalities) {
+        return List.of(
+                SlashCommand.of(
+                        Commands.slash("join-assistant", "Invite desuu to this channel for chat")
+                                .addOption(OptionType.STRING, "personality", "Assistant personality", false),
+                        true,
+                        event -> joinAssistant(event, config, personalities))
+        );
+    }
+
+    private static void joinAssistant(SlashCommandInteractionEvent event, Properties config, Map<String, String> personalities) {
+        String persona = Optional.ofNullable(event.getOption("personality"))
+                .map(OptionMapping::getAsString)
+                .orElse(config.getProperty("default_personality", "helpful"));
+        String prompt = personalities.getOrDefault(persona, personalities.get("helpful"));
+        if (!ChatSessionManager.setSystemPrompt(event.getChannel().getIdLong(), persona, prompt)) {
+            event.getHook().sendMessage("⚠️ Chat is disabled on this bot. Check its logs for why.").queue();
+            return;
+        }
+        event.getHook().sendMessage("Assistant joined with personality \"" + persona + "\"").queue();
+    }
+}
@@ -0,0 +1,83 @@
+package com.desuu.prime.commands;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link EventDispatcher} runs a guild's events in order and keeps the lane usable
+ * when a handler fails.
+ */
+class EventDispatcherTest {
+
+    @Test
+    void eventsOfOneGuildRunInOrder() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(new Properties());
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 40; i++) {
+            int n = i;
+            assertTrue(dispatcher.submit(1L, () -> ran.add(n)));
+        }
+        dispatcher.submit(1L, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, ran.get(i));
+        }
+    }
+
+    @Test
+    void laneKeepsRunningAfterAnError() throws InterruptedException {
+        EventDispatcher dispatcher = new EventDispatcher(new Properties());
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.submit(1L, () -> {
+            throw new AssertionError("handler failed");
+        });
+        dispatcher.submit(1L, () -> {
+            throw new IllegalStateException("handler failed");
+        });
+        dispatcher.submit(1L, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "events after the error never ran");
+        assertEquals(2, dispatcher.getFailed());
+    }
+
+    @Test
+    void rejectsBeyondThePerGuildLimit() throws InterruptedException {
+        Properties config = new Properties();
+        config.setProperty("commands.dispatch.max_pending_per_guild", "2");
+        EventDispatcher dispatcher = new EventDispatcher(config);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher.submit(1L, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(dispatcher.submit(1L, () -> { }));
+        assertTrue(dispatcher.submit(1L, () -> { }));
+        assertFalse(dispatcher.submit(1L, () -> { }));
+        // Other guilds are not affected
+        assertTrue(dispatcher.submit(2L, () -> { }));
+        release.countDown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.desuu.prime.commands.admin;
+
+import com.desuu.prime.commands.CommandHandler;
+import com.desuu.prime.commands.EventDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks what {@code /stats} reports depending on which modules are enabled.
+ */
+class AdminCommandsTest {
+
+    @Test
+    void reportsEachEnabledModule() {
+        String report = AdminCommands.report(dispatcher(), true, 1L);
+
+        assertTrue(report.startsWith("Dispatcher: "), report);
+        assertTrue(report.contains("Chat: disabled\n"), report);
+        assertTrue(report.contains("Transitions: prefetched=0"), report);
+        assertTrue(report.contains("Send path (this server): not playing\n"), report);
+        assertTrue(report.contains("Resolve cache: disabled\n"), report);
+    }
+
+    @Test
+    void leavesOutAudioWhenItIsDisabled() {
+        String report = AdminCommands.report(dispatcher(), false, 1L);
+
+        assertFalse(report.contains("Transitions"), report);
+        assertFalse(report.contains("Music managers"), report);
+    }
+
+    private static EventDispatcher dispatcher() {
+        Properties config = new Properties();
+        config.setProperty("commands.registry.hash_file", "");
+        return new CommandHandler(config, Map.of()).getDispatcher();
+    }
+}
@@ -6,20 +6,35 @@ import com.desuu.prime.commands.CommandHandler;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.JDABuilder;
-import net.dv8tion.jda.api.requests.GatewayIntent; // <-- Import this
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.ConcurrentSessionController;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import org.apache.commons.cli.*;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main entry-point for the DesuuPrime Discord bot.
  * This class is responsible for parsing configuration, initializing services,
- * and launching the JDA instance with the appropriate event listeners.
+ * and launching the sharded JDA runtime with the appropriate event listeners.
  */
 public class DesuuPrime {
 
@@ -45,6 +60,8 @@ public class DesuuPrime {
         }
 
         // 2. Load Configuration File
+        StartupTimeline timeline = new StartupTimeline();
+        long phaseStart = timeline.now();
         File cfgFile = new File(cmd.getOptionValue('c', "config.properties"));
         if (!cfgFile.exists()) {
             System.err.println("Config file not found: " + cfgFile.getAbsolutePath());
@@ -54,42 +71,216 @@ public class DesuuPrime {
         try (FileInputStream fis = new FileInputStream(cfgFile)) {
             props.load(fis);
         }
+        timeline.record("config", phaseStart);
 
-        // 3. Load Personalities File
-        Map<String, String> personalities = new HashMap<>();
-        File pJson = new File("personalities.json");
-        if (pJson.exists()) {
+        // 3. Initialize Core Services
+        // These steps are independent of each other and of the gateway login, so they run in the
+        // background while the shards connect. Command and message handling waits for them.
+        ExecutorService bootstrap = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "bootstrap");
+            t.setDaemon(true);
+            return t;
+        });
+        Map<String, String> personalities = new ConcurrentHashMap<>();
+        CompletableFuture<Void> personalitiesLoaded = timeline.runAsync("personalities", () -> {
+            loadPersonalities(new File("personalities.json"), personalities);
+            return null;
+        }, bootstrap);
+        CompletableFuture<Boolean> authReady = timeline.runAsync("gcp-auth", () -> initGoogleAuth(props), bootstrap);
+        // The first access token is fetched on the auth manager's own thread, overlapping the gateway login
+        CompletableFuture<Void> tokenFetched = authReady.thenCompose(ready -> ready
+                ? timeline.track("gcp-token", GoogleAuthManager.whenInitialRefreshDone())
+                : CompletableFuture.completedFuture(null));
+        CompletableFuture<Void> chatReady = authReady.thenAcceptAsync(ready -> {
+            // Chat stays disabled without Google authentication
+            if (ready) {
+                long chatStart = timeline.now();
+                initChat(props);
+                timeline.record("chat", chatStart);
+            }
+        }, bootstrap);
+        CompletableFuture<Void> servicesReady = CompletableFuture.allOf(personalitiesLoaded, chatReady);
+
+        // The music player is not started here; the first music command initializes it.
+
+        // 4. Build and Launch the Shards
+        // discord.shards.total: number of shards across all processes, or "auto" for Discord's recommendation
+        // discord.shards.min/max: the shard range this process runs (defaults to all of them)
+        // discord.shards.max_concurrency: caps concurrent logins below Discord's limit, e.g. when
+        //   several processes share the same identify bucket
+        String totalSetting = props.getProperty("discord.shards.total", "auto").trim();
+        int shardsTotal = totalSetting.equalsIgnoreCase("auto") ? -1 : Integer.parseInt(totalSetting);
+        String minShard = props.getProperty("discord.shards.min");
+        String maxShard = props.getProperty("discord.shards.max");
+        int maxConcurrency = Integer.parseInt(props.getProperty("discord.shards.max_concurrency", "0"));
+
+        ConcurrentSessionController sessionController = new ConcurrentSessionController() {
+            @Override
+            public void setConcurrency(int level) {
+                // Called by JDA with the max_concurrency Discord reports for this bot
+                super.setConcurrency(maxConcurrency > 0 ? Math.min(level, maxConcurrency) : level);
+            }
+        };
+
+        // discord.profile: "default" keeps JDA's default caches, "lean" only keeps what the bot uses
+        String profile = props.getProperty("discord.profile", "default").trim();
+        CommandHandler commandHandler = new CommandHandler(props, personalities);
+        commandHandler.setServicesReady(servicesReady);
+        DefaultShardManagerBuilder builder = createShardManagerBuilder(props.getProperty("discord.token"), profile)
+                .setShardsTotal(shardsTotal)
+                .setSessionController(sessionController)
+                // Register event listeners. All logic is now in dedicated handlers.
+                .addEventListeners(commandHandler);
+        if (minShard != null || maxShard != null) {
+            if (shardsTotal < 0) {
+                System.err.println("discord.shards.min/max require a fixed discord.shards.total.");
+                return;
+            }
+            builder.setShards(Integer.parseInt(minShard != null ? minShard.trim() : "0"),
+                    Integer.parseInt(maxShard != null ? maxShard.trim() : String.valueOf(shardsTotal - 1)));
+        }
+        phaseStart = timeline.now();
+        ShardManager shardManager = builder.build();
+        timeline.record("gateway-login", phaseStart);
+
+        // discord.shards.ready_timeout_seconds: how long to wait for all of this process's shards to connect
+        long readyTimeoutSeconds = Long.parseLong(props.getProperty("discord.shards.ready_timeout_seconds", "600"));
+        phaseStart = timeline.now();
+        if (!awaitShardsReady(shardManager, minShard, maxShard, readyTimeoutSeconds)) {
+            System.err.println("Startup failed: not all shards connected.");
+            shardManager.shutdown();
+            bootstrap.shutdown();
+            return;
+        }
+        timeline.record("shards-ready", phaseStart);
+
+        try {
+            servicesReady.join();
+        } catch (CompletionException e) {
+            System.err.println("Startup failed: " + e.getCause());
+            shardManager.shutdown();
+            return;
+        } finally {
+            bootstrap.shutdown();
+        }
+        tokenFetched.join(); // Usually long done; waited for so the timeline includes it
+        timeline.log();
+        System.out.println("DesuuPrime is online and ready! (" + shardManager.getShardsRunning() + " of "
+                + shardManager.getShardsTotal() + " shards)");
+        // discord.profile.log_heap: measure the heap after ready (forces a full GC; for comparing profiles)
+        if (Boolean.parseBoolean(props.getProperty("discord.profile.log_heap", "false"))) {
+            logHeapUsage(shardManager, profile);
+        }
+    }
+
+    private static void loadPersonalities(File pJson, Map<String, String> personalities) {
+        if (!pJson.exists()) {
+            return;
+        }
+        try {
             ObjectMapper mapper = new ObjectMapper();
             Map<String, Map<String, String>> raw = mapper.readValue(pJson, new TypeReference<>() {});
             raw.forEach((k, v) -> personalities.put(k, v.get("system")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + pJson, e);
         }
+    }
 
-        // 4. Initialize Core Services
-        // Music player initialization is disabled for now.
-
-        // Initialize Google authentication and chat session manager for Vertex
-
+    /**
+     * Loads the Google credentials. The first access token is fetched in the background.
+     *
+     * @return Whether authentication is available.
+     */
+    private static boolean initGoogleAuth(Properties props) {
         String credentialsPath = props.getProperty("gcp.credentials_path");
         try {
-            GoogleAuthManager.init(credentialsPath);
+            GoogleAuthManager.init(credentialsPath, props);
+            return true;
         } catch (Exception e) {
             System.err.println("Could not initialize Google Authentication. Chat features will be disabled. Error: " + e.getMessage());
             // Depending on requirements, you might want to exit here: System.exit(1);
+            return false;
         }
+    }
+
+    // Initialize the chat session manager for Vertex
+    private static void initChat(Properties props) {
         String projectNumber = props.getProperty("gcp.project_number");
         String location = props.getProperty("gcp.location", "us-central1");
         String endpointId = props.getProperty("vertex.endpoint_id");
-        ChatSessionManager.init(projectNumber, location, endpointId);
+        ChatSessionManager.init(projectNumber, location, endpointId, props);
+    }
 
-        // 5. Build and Launch JDA
-        JDA jda = JDABuilder.createDefault(props.getProperty("discord.token"))
-                // THIS IS THE LINE YOU NEED TO ADD
-                .enableIntents(GatewayIntent.MESSAGE_CONTENT)
-                // Register event listeners. All logic is now in dedicated handlers.
-                .addEventListeners(new CommandHandler(props, personalities))
-                .build();
+    /**
+     * Creates the shard manager builder for the given cache profile.
+     * <p>
+     * The "lean" profile subscribes only to the events the bot handles (guild messages with their
+     * content, and voice states for audio), caches only members that are in voice and
+     * turns off member chunking and all other cache flags. JDA always adds the GUILDS intent itself,
+     * which keeps the guild and channel caches working.
+     */
+    private static DefaultShardManagerBuilder createShardManagerBuilder(String token, String profile) {
+        switch (profile.toLowerCase()) {
+            case "lean":
+                return DefaultShardManagerBuilder.createLight(token, EnumSet.of(
+                                GatewayIntent.GUILD_MESSAGES,
+                                GatewayIntent.MESSAGE_CONTENT,
+                                GatewayIntent.GUILD_VOICE_STATES))
+                        .enableCache(CacheFlag.VOICE_STATE)
+                        .setMemberCachePolicy(MemberCachePolicy.VOICE)
+                        .setChunkingFilter(ChunkingFilter.NONE);
+            case "default":
+                return DefaultShardManagerBuilder.createDefault(token)
+                        .enableIntents(GatewayIntent.MESSAGE_CONTENT);
+            default:
+                throw new IllegalArgumentException("Unknown discord.profile: " + profile);
+        }
+    }
 
-        jda.awaitReady();
-        System.out.println("DesuuPrime is online and ready!");
+    /**
+     * Prints the heap in use once all shards are ready, after a GC hint, so cache profiles can be compared.
+     * The GC makes the figure meaningful but pauses the bot, so this only runs when asked for.
+     */
+    private static void logHeapUsage(ShardManager shardManager, String profile) {
+        System.gc();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long guilds = shardManager.getGuildCache().size();
+        long usedKb = heap.getUsed() / 1024;
+        System.out.println("Heap used after ready: " + (usedKb / 1024) + " MB for " + guilds + " guilds ("
+                + (guilds == 0 ? 0 : usedKb / guilds) + " KB/guild, " + shardManager.getUserCache().size()
+                + " cached users, profile=" + profile + ")");
+    }
+
+    /**
+     * Blocks until every shard this process runs has connected. Shards are started one
+     * login window after another, so later ones may not exist yet when this is called.
+     *
+     * @return false if a shard failed to log in, or was not connected within the timeout.
+     */
+    private static boolean awaitShardsReady(ShardManager shardManager, String minShard, String maxShard,
+                                            long timeoutSeconds) throws InterruptedException {
+        int total = shardManager.getShardsTotal();
+        int first = minShard != null ? Integer.parseInt(minShard.trim()) : 0;
+        int last = maxShard != null ? Integer.parseInt(maxShard.trim()) : total - 1;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        for (int id = first; id <= last; id++) {
+            JDA shard;
+            while ((shard = shardManager.getShardById(id)) == null || shard.getStatus() != JDA.Status.CONNECTED) {
+                JDA.Status status = shard == null ? null : shard.getStatus();
+                if (status == JDA.Status.FAILED_TO_LOGIN || status == JDA.Status.SHUTTING_DOWN
+                        || status == JDA.Status.SHUTDOWN) {
+                    System.err.println("Shard " + id + "/" + total + " did not connect: " + status);
+                    return false;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    System.err.println("Shard " + id + "/" + total + (shard == null ? " was never created" : " is still " + status)
+                            + " after " + timeoutSeconds + " s.");
+                    return false;
+                }
+                Thread.sleep(500);
+            }
+            System.out.println("Shard " + id + "/" + total + " ready.");
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.desuu.prime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Records when each startup phase began and how long it took, relative to the start of
+ * {@code main}, and logs them as one timeline once the bot is ready. Phases may overlap.
+ */
+final class StartupTimeline {
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeline.class);
+
+    private static final class Phase {
+        final String name;
+        final long startNanos;
+        final long endNanos;
+
+        Phase(String name, long startNanos, long endNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private final long originNanos = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+
+    long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a phase that started at {@code startNanos} (from {@link #now()}) and ends now.
+     */
+    synchronized void record(String name, long startNanos) {
+        phases.add(new Phase(name, startNanos, System.nanoTime()));
+    }
+
+    /**
+     * Runs a step on the given executor and records it as a phase when it completes, whether it succeeded or not.
+     */
+    <T> CompletableFuture<T> runAsync(String name, Supplier<T> step, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = now();
+            try {
+                return step.get();
+            } finally {
+                record(name, start);
+            }
+        }, executor);
+    }
+
+    /**
+     * Records a phase that runs from now until the given future completes.
+     */
+    <T> CompletableFuture<T> track(String name, CompletableFuture<T> future) {
+        long start = now();
+        return future.whenComplete((result, error) -> record(name, start));
+    }
+
+    synchronized void log() {
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime()
+                - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - originNanos);
+        StringBuilder out = new StringBuilder("Startup timeline (JVM start to first phase: ").append(jvmMillis).append(" ms)");
+        phases.sort(Comparator.comparingLong(phase -> phase.startNanos));
+        for (Phase phase : phases) {
+            out.append(String.format("%n  +%6d ms  %-16s %6d ms", millis(phase.startNanos - originNanos), phase.name,
+                    millis(phase.endNanos - phase.startNanos)));
+        }
+        out.append(String.format("%n  time to ready: %d ms", millis(System.nanoTime() - originNanos)));
+        logger.info(out.toString());
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}